@@ -42,8 +42,15 @@ import android.widget.TextView;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
 import com.google.zxing.ResultPoint;
+import com.google.zxing.client.android.camera.CameraErrorListener;
 import com.google.zxing.client.android.camera.CameraManager;
 import com.google.zxing.client.android.camera.FrontLightMode;
+import com.google.zxing.client.android.decode.DecodeEngine;
+import com.google.zxing.client.android.decode.DecodeFormatManager;
+import com.google.zxing.client.android.decode.DecodeOptions;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.client.android.metrics.ScanMetricsListener;
 import com.google.zxing.client.android.util.AmbientLightManager;
 import com.google.zxing.client.android.util.BeepManager;
 import com.google.zxing.client.android.util.InactivityTimer;
@@ -52,8 +59,10 @@ import com.google.zxing.client.android.view.ViewfinderView;
 import com.gyf.immersionbar.BarHide;
 import com.gyf.immersionbar.ImmersionBar;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * This activity opens the camera and does the actual scanning on a background thread. It draws a
@@ -63,11 +72,28 @@ import java.util.Collection;
  * @author dswitkin@google.com (Daniel Switkin)
  * @author Sean Owen
  */
-public class CaptureActivity extends Activity implements SurfaceHolder.Callback {
+public class CaptureActivity extends Activity implements SurfaceHolder.Callback, CameraErrorListener {
     public static final String EXTRA_SCAN_RESULT = "scan_result";
+    /**
+     * The contents of all barcodes found in a {@link Intents.Scan#CONTINUOUS} or
+     * {@link Intents.Scan#MULTIPLE} scan, as a {@code ArrayList<String>}.
+     */
+    public static final String EXTRA_SCAN_RESULTS = "scan_results";
+    /**
+     * The formats of the barcodes in {@link #EXTRA_SCAN_RESULTS}, in the same order.
+     */
+    public static final String EXTRA_SCAN_RESULT_FORMATS = "scan_result_formats";
+    /**
+     * The throughput of a continuous scan, in barcodes per minute, as a float.
+     */
+    public static final String EXTRA_SCAN_CODES_PER_MINUTE = "scan_codes_per_minute";
 
     private static final String TAG = CaptureActivity.class.getSimpleName();
     private static final boolean DISABLE_AUTO_ORIENTATION = true;
+    private static final ScanMetricsCollector SCAN_METRICS = new ScanMetricsCollector();
+    private static volatile ScanMetricsListener scanMetricsListener;
+    private static volatile long scanMetricsIntervalMs;
+    private static volatile ScanSessionListener scanSessionListener;
     private CameraManager cameraManager;
     private CaptureActivityHandler handler;
     private Result savedResultToShow;
@@ -76,10 +102,87 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
     private boolean hasSurface;
     private Collection<BarcodeFormat> decodeFormats;
     private String characterSet;
+    private DecodeOptions decodeOptions;
+    private ScanSession scanSession;
     private InactivityTimer inactivityTimer;
     private BeepManager beepManager;
     private AmbientLightManager ambientLightManager;
     private MyOrientationDetector myOrientationDetector;
+    private final Handler scanMetricsHandler = new Handler();
+    private final Runnable scanMetricsPush = new Runnable() {
+        @Override
+        public void run() {
+            pushScanMetrics();
+            long interval = scanMetricsIntervalMs;
+            if (interval > 0L) {
+                scanMetricsHandler.postDelayed(this, interval);
+            }
+        }
+    };
+
+    /**
+     * Registers a listener for the decode metrics of this process. It is called on the main
+     * thread every {@code intervalMs} while scanning, and once whenever scanning is paused.
+     *
+     * @param listener   The listener, or {@code null} to stop pushing metrics.
+     * @param intervalMs How often to push metrics while scanning; 0 to only push them on pause.
+     */
+    public static void setScanMetricsListener(ScanMetricsListener listener, long intervalMs) {
+        scanMetricsIntervalMs = intervalMs;
+        scanMetricsListener = listener;
+    }
+
+    /**
+     * @return the decode metrics recorded since the process started or {@link #resetScanMetrics()}.
+     */
+    public static ScanMetrics getScanMetrics() {
+        return SCAN_METRICS.snapshot();
+    }
+
+    public static void resetScanMetrics() {
+        SCAN_METRICS.reset();
+    }
+
+    /**
+     * Registers a listener for the barcodes of {@link Intents.Scan#CONTINUOUS} scans, as they are
+     * found. The batch is also returned in the result intent when the scan ends.
+     *
+     * @param listener The listener, or {@code null} to unregister.
+     */
+    public static void setScanSessionListener(ScanSessionListener listener) {
+        scanSessionListener = listener;
+    }
+
+    /**
+     * Gets the scanner ready before it is launched, for instance as the screen with the scan button
+     * appears: opens and sets up the camera on the camera thread, and loads the decoders. The
+     * scanner takes the camera over when it starts; if it doesn't start within a few seconds, the
+     * camera is closed again. Needs the camera permission. The time from the scanner starting to its
+     * first frame and first barcode shows in {@link #getScanMetrics()}.
+     */
+    public static void prewarm(Context context) {
+        CameraManager.prewarm(context);
+        DecodeEngine.prewarm(context.getApplicationContext());
+    }
+
+    /**
+     * Closes the camera opened by {@link #prewarm(Context)}, if the scanner is not going to be
+     * launched after all.
+     */
+    public static void cancelPrewarm() {
+        CameraManager.cancelPrewarm();
+    }
+
+    static ScanMetricsCollector getScanMetricsCollector() {
+        return SCAN_METRICS;
+    }
+
+    private void pushScanMetrics() {
+        ScanMetricsListener listener = scanMetricsListener;
+        if (listener != null) {
+            listener.onScanMetrics(SCAN_METRICS.snapshot());
+        }
+    }
 
     ViewfinderView getViewfinderView() {
         return viewfinderView;
@@ -133,7 +236,23 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
         // want to open the camera driver and measure the screen size if we're going to show the help on
         // first launch. That led to bugs where the scanning rectangle was the wrong size and partially
         // off screen.
-        cameraManager = new CameraManager(getApplication());
+        SCAN_METRICS.markStartup();
+        if (cameraManager == null) {
+            // Kept across pauses, so that resuming straight away can call off the pending close
+            cameraManager = CameraManager.obtain(getApplication());
+        }
+        cameraManager.setErrorListener(this);
+        Intent intent = getIntent();
+        if (intent != null && intent.hasExtra(Intents.Scan.PREVIEW_BUFFER_COUNT)) {
+            cameraManager.setPreviewBufferCount(intent.getIntExtra(Intents.Scan.PREVIEW_BUFFER_COUNT, 0));
+        }
+        if (intent != null && intent.hasExtra(Intents.Scan.USE_CAMERA2)) {
+            cameraManager.setCamera2Enabled(intent.getBooleanExtra(Intents.Scan.USE_CAMERA2, true));
+        }
+        decodeOptions = DecodeOptions.parse(intent);
+        if (decodeOptions.isContinuous() && scanSession == null) {
+            scanSession = new ScanSession();
+        }
 
         viewfinderView = (ViewfinderView) findViewById(R.id.viewfinder_view);
         viewfinderView.setCameraManager(cameraManager);
@@ -157,8 +276,12 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
 
         inactivityTimer.onResume();
 
-        decodeFormats = null;
-        characterSet = null;
+        if (scanMetricsIntervalMs > 0L) {
+            scanMetricsHandler.postDelayed(scanMetricsPush, scanMetricsIntervalMs);
+        }
+
+        decodeFormats = intent == null ? null : DecodeFormatManager.parseDecodeFormats(intent);
+        characterSet = intent == null ? null : intent.getStringExtra(Intents.Scan.CHARACTER_SET);
 
         SurfaceView surfaceView = (SurfaceView) findViewById(R.id.preview_view);
         SurfaceHolder surfaceHolder = surfaceView.getHolder();
@@ -209,14 +332,13 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
         }
         try {
             cameraManager.openDriver(surfaceHolder);
-            // Creating the handler starts the preview, which can also throw a RuntimeException.
+            // Creating the handler queues the preview to start once the camera is open; should either
+            // fail, onCameraError() is told.
             if (handler == null) {
-                handler = new CaptureActivityHandler(this, decodeFormats, null, characterSet, cameraManager);
+                handler = new CaptureActivityHandler(this, decodeFormats, null, characterSet, decodeOptions,
+                        cameraManager);
             }
             decodeOrStoreSavedBitmap(null);
-        } catch (IOException ioe) {
-            Log.w(TAG, ioe);
-            displayFrameworkBugMessageAndExit();
         } catch (RuntimeException e) {
             // Barcode Scanner has seen crashes in the wild of this variety:
             // java.?lang.?RuntimeException: Fail to connect to camera service
@@ -225,6 +347,17 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
         }
     }
 
+    /**
+     * The camera failed to open or to start its preview, on the thread it is driven from.
+     */
+    @Override
+    public void onCameraError(Exception e) {
+        Log.w(TAG, "Camera failed", e);
+        if (!isFinishing()) {
+            displayFrameworkBugMessageAndExit();
+        }
+    }
+
     private void decodeOrStoreSavedBitmap(Result result) {
         // Bitmap isn't used yet -- will be used soon
         if (handler == null) {
@@ -256,9 +389,14 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
         myOrientationDetector.disable();
         // end add
         if (handler != null) {
-            handler.quitSynchronously();
+            handler.quit();
             handler = null;
         }
+        scanMetricsHandler.removeCallbacks(scanMetricsPush);
+        pushScanMetrics();
+        if (isFinishing()) {
+            endScanSession();
+        }
         if (null != inactivityTimer) {
             inactivityTimer.onPause();
         }
@@ -291,7 +429,13 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         switch (keyCode) {
             case KeyEvent.KEYCODE_BACK:
-                setResult(RESULT_CANCELED);
+                if (scanSession != null && scanSession.getCount() > 0) {
+                    endScanSession();
+                    // Again, with the throughput of the whole session
+                    setResult(RESULT_OK, scanSession.toIntent());
+                } else {
+                    setResult(RESULT_CANCELED);
+                }
                 finish();
                 break;
             case KeyEvent.KEYCODE_FOCUS:
@@ -333,11 +477,9 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
     /**
      * A valid barcode has been found, so give an indication of success and show the results.
      *
-     * @param rawResult   The contents of the barcode.
-     * @param scaleFactor amount by which thumbnail was scaled
-     * @param barcode     A greyscale bitmap of the camera data which was decoded.
+     * @param rawResult The contents of the barcode.
      */
-    public void handleDecode(Result rawResult, Bitmap barcode, float scaleFactor) {
+    public void handleDecode(Result rawResult) {
         inactivityTimer.onActivity();
 
         if (null != rawResult) {
@@ -345,24 +487,119 @@ public class CaptureActivity extends Activity implements SurfaceHolder.Callback
             Log.e("CaptureActivity", "Scan Result->" + result);
         }
 
-        boolean fromLiveScan = barcode != null;
-        if (fromLiveScan) {
-            // Then not from history, so beep/vibrate and we have an image to draw on
-            beepManager.playBeepSoundAndVibrate();
-            drawResultPoints(barcode, scaleFactor, rawResult);
-            // add by stefan
+        beepManager.playBeepSoundAndVibrate();
+        if (scanSession != null) {
+            // continuous: decoding goes on, so just collect the result
             if (null != rawResult) {
-                Intent data = new Intent();
-                data.putExtra(EXTRA_SCAN_RESULT, rawResult.getText());
-                setResult(Activity.RESULT_OK, data);
-                finish();
-            } else {
-                restartPreviewAfterDelay(500L);
+                collectResult(rawResult);
+            }
+            return;
+        }
+        // add by stefan
+        if (null != rawResult) {
+            Intent data = new Intent();
+            data.putExtra(EXTRA_SCAN_RESULT, rawResult.getText());
+            setResult(Activity.RESULT_OK, data);
+            finish();
+        } else {
+            restartPreviewAfterDelay(500L);
+        }
+        // add end
+    }
+
+    /**
+     * @param rawResult   The contents of the barcode.
+     * @param barcode     A greyscale bitmap of the camera data which was decoded, or {@code null}.
+     * @param scaleFactor amount by which thumbnail was scaled
+     * @deprecated The thumbnail is no longer built with every result; use {@link #handleDecode(Result)},
+     * and {@link #handleDecodeThumbnail(Result, Bitmap, float)} for the thumbnail.
+     */
+    @Deprecated
+    public void handleDecode(Result rawResult, Bitmap barcode, float scaleFactor) {
+        if (barcode != null) {
+            handleDecodeThumbnail(rawResult, barcode, scaleFactor);
+        }
+        handleDecode(rawResult);
+    }
+
+    /**
+     * All barcodes found in one frame, in {@link Intents.Scan#MULTIPLE} mode.
+     *
+     * @param rawResults The contents of the barcodes, without duplicates.
+     */
+    public void handleDecodeMultiple(Result[] rawResults) {
+        inactivityTimer.onActivity();
+        beepManager.playBeepSoundAndVibrate();
+        if (scanSession != null) {
+            for (Result rawResult : rawResults) {
+                collectResult(rawResult);
             }
-            // add end
+            return;
+        }
+        setResult(Activity.RESULT_OK, buildResultIntent(Arrays.asList(rawResults)));
+        finish();
+    }
+
+    private void collectResult(Result rawResult) {
+        if (scanSession.isEnded()) {
+            return;
+        }
+        scanSession.add(rawResult);
+        // Kept up to date so the results are returned however the activity finishes
+        setResult(Activity.RESULT_OK, scanSession.toIntent());
+        statusView.setText(rawResult.getText());
+        ScanSessionListener listener = scanSessionListener;
+        if (listener != null) {
+            listener.onScanResult(scanSession, rawResult);
+        }
+    }
+
+    /**
+     * @return the result intent for several barcodes: all contents and formats, and the last
+     * barcode also in {@link #EXTRA_SCAN_RESULT}, as for a single scan.
+     */
+    static Intent buildResultIntent(List<Result> rawResults) {
+        ArrayList<String> contents = new ArrayList<>(rawResults.size());
+        ArrayList<String> formats = new ArrayList<>(rawResults.size());
+        for (Result rawResult : rawResults) {
+            contents.add(rawResult.getText());
+            formats.add(rawResult.getBarcodeFormat().toString());
+        }
+        Intent data = new Intent();
+        data.putStringArrayListExtra(EXTRA_SCAN_RESULTS, contents);
+        data.putStringArrayListExtra(EXTRA_SCAN_RESULT_FORMATS, formats);
+        if (!contents.isEmpty()) {
+            data.putExtra(EXTRA_SCAN_RESULT, contents.get(contents.size() - 1));
+        }
+        return data;
+    }
+
+    private void endScanSession() {
+        if (scanSession == null || scanSession.isEnded()) {
+            return;
+        }
+        scanSession.end();
+        Log.i(TAG, "Scan session ended: " + scanSession.getCount() + " barcodes in " +
+                scanSession.getDurationMillis() + " ms, " + scanSession.getCodesPerMinute() + " per minute");
+        ScanSessionListener listener = scanSessionListener;
+        if (listener != null) {
+            listener.onScanSessionEnded(scanSession);
         }
     }
 
+    /**
+     * The thumbnail of the frame a barcode was found in, if {@link Intents.Scan#RESULT_THUMBNAIL}
+     * was requested. It arrives after {@link #handleDecode(Result)}, possibly once the activity is
+     * already finishing.
+     *
+     * @param rawResult   The result the thumbnail belongs to.
+     * @param barcode     A mutable greyscale bitmap of the camera data which was decoded.
+     * @param scaleFactor amount by which thumbnail was scaled
+     */
+    public void handleDecodeThumbnail(Result rawResult, Bitmap barcode, float scaleFactor) {
+        drawResultPoints(barcode, scaleFactor, rawResult);
+    }
+
     /**
      * Superimpose a line for 1D or dots for 2D to highlight the key features of the barcode.
      *
@@ -19,14 +19,16 @@ package com.google.zxing.client.android;
 import android.content.ActivityNotFoundException;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.graphics.BitmapFactory;
 import android.provider.Browser;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.camera.CameraManager;
+import com.google.zxing.client.android.decode.DecodeEngine;
+import com.google.zxing.client.android.decode.DecodeOptions;
 import com.google.zxing.client.android.decode.DecodeThread;
+import com.google.zxing.client.android.metrics.ScanMetrics;
 import com.google.zxing.client.android.view.ViewfinderResultPointCallback;
 
 import android.app.Activity;
@@ -36,10 +38,12 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class handles all the messaging which comprises the state machine for capture.
@@ -51,19 +55,22 @@ public final class CaptureActivityHandler extends Handler {
     private static final String TAG = CaptureActivityHandler.class.getSimpleName();
 
     private final CaptureActivity activity;
-    private final DecodeThread decodeThread;
+    private final DecodeEngine decodeEngine;
     private final CameraManager cameraManager;
+    private final boolean continuous;
     private State state;
 
     CaptureActivityHandler(CaptureActivity activity,
                            Collection<BarcodeFormat> decodeFormats,
                            Map<DecodeHintType, ?> baseHints,
                            String characterSet,
+                           DecodeOptions decodeOptions,
                            CameraManager cameraManager) {
         this.activity = activity;
-        decodeThread = new DecodeThread(activity, decodeFormats, baseHints, characterSet,
-                new ViewfinderResultPointCallback(activity.getViewfinderView()));
-        decodeThread.start();
+        decodeEngine = new DecodeEngine(activity, cameraManager, decodeOptions, decodeFormats, baseHints,
+                characterSet, new ViewfinderResultPointCallback(activity.getViewfinderView()),
+                CaptureActivity.getScanMetricsCollector(), this);
+        continuous = decodeOptions.isContinuous();
         state = State.SUCCESS;
 
         // Start ourselves capturing previews and decoding.
@@ -75,7 +82,7 @@ public final class CaptureActivityHandler extends Handler {
     private void restartPreviewAndDecode() {
         if (state == State.SUCCESS) {
             state = State.PREVIEW;
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+            decodeEngine.start();
             activity.drawViewfinder();
         }
     }
@@ -85,24 +92,34 @@ public final class CaptureActivityHandler extends Handler {
         if (R.id.restart_preview == message.what) {
             restartPreviewAndDecode();
         } else if (R.id.decode_succeeded == message.what) {
-            state = State.SUCCESS;
+            if (state == State.DONE) {
+                // posted by a worker finishing after quit()
+                return;
+            }
+            if (!continuous) {
+                state = State.SUCCESS;
+            }
+            CaptureActivity.getScanMetricsCollector().record(ScanMetrics.Stage.DELIVERY,
+                    TimeUnit.MILLISECONDS.toNanos(SystemClock.uptimeMillis() - message.getWhen()));
+            if (message.obj instanceof Result[]) {
+                activity.handleDecodeMultiple((Result[]) message.obj);
+            } else {
+                activity.handleDecode((Result) message.obj);
+            }
+        } else if (R.id.decode_thumbnail == message.what) {
+            if (state == State.DONE) {
+                return;
+            }
             Bundle bundle = message.getData();
-            Bitmap barcode = null;
-            float scaleFactor = 1.0f;
-            if (bundle != null) {
-                byte[] compressedBitmap = bundle.getByteArray(DecodeThread.BARCODE_BITMAP);
-                if (compressedBitmap != null) {
-                    barcode = BitmapFactory.decodeByteArray(compressedBitmap, 0, compressedBitmap.length, null);
-                    // Mutable copy:
-                    barcode = barcode.copy(Bitmap.Config.ARGB_8888, true);
+            Bitmap barcode = bundle.getParcelable(DecodeThread.BARCODE_BITMAP);
+            float scaleFactor = bundle.getFloat(DecodeThread.BARCODE_SCALED_FACTOR);
+            if (message.obj instanceof Result[]) {
+                for (Result rawResult : (Result[]) message.obj) {
+                    activity.handleDecodeThumbnail(rawResult, barcode, scaleFactor);
                 }
-                scaleFactor = bundle.getFloat(DecodeThread.BARCODE_SCALED_FACTOR);
+            } else {
+                activity.handleDecodeThumbnail((Result) message.obj, barcode, scaleFactor);
             }
-            activity.handleDecode((Result) message.obj, barcode, scaleFactor);
-        } else if (R.id.decode_failed == message.what) {
-            // We're decoding as fast as possible, so when one decode fails, start another.
-            state = State.PREVIEW;
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
         } else if (R.id.return_scan_result == message.what) {
             activity.setResult(Activity.RESULT_OK, (Intent) message.obj);
             activity.finish();
@@ -136,21 +153,18 @@ public final class CaptureActivityHandler extends Handler {
         }
     }
 
-    void quitSynchronously() {
+    /**
+     * Stops the preview and decoding without waiting for either, so pausing costs the main thread
+     * next to nothing: the preview is stopped on the camera thread, and the workers drain their
+     * frames and exit on their own.
+     */
+    void quit() {
         state = State.DONE;
         cameraManager.stopPreview();
-        Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-        quit.sendToTarget();
-        try {
-            // Wait at most half a second; should be enough time, and onPause() will timeout quickly
-            decodeThread.join(500L);
-        } catch (InterruptedException e) {
-            // continue
-        }
+        decodeEngine.quit();
 
         // Be absolutely sure we don't send any queued up messages
         removeMessages(R.id.decode_succeeded);
-        removeMessages(R.id.decode_failed);
     }
 
     private enum State {
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import com.google.zxing.Result;
+import com.google.zxing.client.android.util.Intents;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The barcodes found during one {@link Intents.Scan#CONTINUOUS} scan, from the moment the scan
+ * screen came up until it is left. Repeated reads of a barcode have already been dropped. Only
+ * used on the main thread.
+ */
+public final class ScanSession {
+
+    private final long startTime = SystemClock.elapsedRealtime();
+    private final List<Result> results = new ArrayList<>();
+    private long endTime;
+
+    void add(Result result) {
+        results.add(result);
+    }
+
+    void end() {
+        if (endTime == 0L) {
+            endTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public boolean isEnded() {
+        return endTime != 0L;
+    }
+
+    /**
+     * @return the barcodes found so far, oldest first.
+     */
+    public List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    public int getCount() {
+        return results.size();
+    }
+
+    /**
+     * @return how long the session has been, or was, running.
+     */
+    public long getDurationMillis() {
+        return (endTime == 0L ? SystemClock.elapsedRealtime() : endTime) - startTime;
+    }
+
+    /**
+     * @return the throughput of the session, in barcodes per minute.
+     */
+    public float getCodesPerMinute() {
+        long duration = getDurationMillis();
+        return duration <= 0L ? 0.0f : results.size() * 60000.0f / duration;
+    }
+
+    /**
+     * @return the result intent of a session: all contents and formats, and the throughput.
+     */
+    Intent toIntent() {
+        Intent data = CaptureActivity.buildResultIntent(results);
+        data.putExtra(CaptureActivity.EXTRA_SCAN_CODES_PER_MINUTE, getCodesPerMinute());
+        return data;
+    }
+
+}
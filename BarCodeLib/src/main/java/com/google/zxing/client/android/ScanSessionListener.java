@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android;
+
+import com.google.zxing.Result;
+
+/**
+ * Receives the barcodes of a continuous scan as they are found, on the main thread.
+ *
+ * @see CaptureActivity#setScanSessionListener(ScanSessionListener)
+ */
+public interface ScanSessionListener {
+
+    /**
+     * A barcode not seen within the duplicate window has been found.
+     */
+    void onScanResult(ScanSession session, Result result);
+
+    /**
+     * The scan screen is being left; {@code session} holds all barcodes found.
+     */
+    void onScanSessionEnded(ScanSession session);
+
+}
@@ -17,14 +17,17 @@
 package com.google.zxing.client.android.camera;
 
 import android.hardware.Camera;
-import android.os.AsyncTask;
+import android.os.Handler;
 import android.util.Log;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Asks the camera to focus again every {@value #AUTO_FOCUS_INTERVAL_MS} ms, in focus modes which
+ * don't focus continuously by themselves. Lives on the camera thread: it is created and stopped
+ * there, the camera calls back there, and the next request is posted there.
+ */
 final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private static final String TAG = AutoFocusManager.class.getSimpleName();
@@ -40,21 +43,31 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private final boolean useAutoFocus;
     private final Camera camera;
+    private final Handler handler;
+    private final Runnable autoFocusTask = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
     private boolean stopped;
     private boolean focusing;
-    private AsyncTask<?, ?, ?> outstandingTask;
 
-    AutoFocusManager(Camera camera) {
+    /**
+     * @param handler A handler on the camera thread, which the camera was opened on.
+     */
+    AutoFocusManager(Camera camera, Handler handler) {
         this.camera = camera;
+        this.handler = handler;
         String currentFocusMode = camera.getParameters().getFocusMode();
         useAutoFocus = FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
         Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus);
         start();
     }
 
-    synchronized void start() {
+    void start() {
         if (useAutoFocus) {
-            outstandingTask = null;
+            handler.removeCallbacks(autoFocusTask);
             if (!stopped && !focusing) {
                 try {
                     camera.autoFocus(this);
@@ -69,28 +82,23 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
         }
     }
 
-    private synchronized void autoFocusAgainLater() {
-        if (!stopped && outstandingTask == null) {
-            AutoFocusTask newTask = new AutoFocusTask(this);
-            try {
-                newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                outstandingTask = newTask;
-            } catch (RejectedExecutionException ree) {
-                Log.w(TAG, "Could not request auto focus", ree);
-            }
+    private void autoFocusAgainLater() {
+        if (!stopped) {
+            handler.removeCallbacks(autoFocusTask);
+            handler.postDelayed(autoFocusTask, AUTO_FOCUS_INTERVAL_MS);
         }
     }
 
     @Override
-    public synchronized void onAutoFocus(boolean success, Camera theCamera) {
+    public void onAutoFocus(boolean success, Camera theCamera) {
         focusing = false;
         autoFocusAgainLater();
     }
 
-    synchronized void stop() {
+    void stop() {
         stopped = true;
         if (useAutoFocus) {
-            cancelOutstandingTask();
+            handler.removeCallbacks(autoFocusTask);
             // Doesn't hurt to call this even if not focusing
             try {
                 camera.cancelAutoFocus();
@@ -101,34 +109,4 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
         }
     }
 
-    private synchronized void cancelOutstandingTask() {
-        if (outstandingTask != null) {
-            if (outstandingTask.getStatus() != AsyncTask.Status.FINISHED) {
-                outstandingTask.cancel(true);
-            }
-            outstandingTask = null;
-        }
-    }
-
-    private static class AutoFocusTask extends AsyncTask<Object, Object, Object> {
-
-        private AutoFocusManager theInstance;
-
-        AutoFocusTask(AutoFocusManager instance) {
-            WeakReference<AutoFocusManager> weakReference = new WeakReference<>(instance);
-            theInstance = weakReference.get();
-        }
-
-        @Override
-        protected Object doInBackground(Object... voids) {
-            try {
-                Thread.sleep(AUTO_FOCUS_INTERVAL_MS);
-            } catch (InterruptedException e) {
-                // continue
-            }
-            theInstance.start();
-            return null;
-        }
-    }
-
 }
@@ -0,0 +1,647 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the camera through Camera2, for {@link CameraManager}. The preview goes to the display at
+ * a size picked for the screen, while the frames to decode come from an {@link ImageReader} of
+ * their own, in {@link ImageFormat#YUV_420_888} at no more than {@value #MAX_DECODE_WIDTH}x{@value
+ * #MAX_DECODE_HEIGHT}: the decoders gain little from more pixels, and would pay for every one of
+ * them. The Y plane of each image is handed to the pipeline in place by an
+ * {@link ImageFrameDispatcher}, and the image is closed once the pipeline hands it back.
+ * <p>
+ * Cameras Camera2 only drives through a translation onto Camera1, those at
+ * {@link CameraMetadata#INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY}, are refused, so that
+ * {@link CameraManager} uses Camera1 for them directly.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2Backend {
+
+    private static final String TAG = Camera2Backend.class.getSimpleName();
+
+    private static final int MAX_DECODE_WIDTH = 1280;
+    private static final int MAX_DECODE_HEIGHT = 720;
+    /**
+     * The largest preview every Camera2 device can stream alongside a YUV output of up to the same
+     * size.
+     */
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+    private static final float ASPECT_TOLERANCE = 0.05f;
+    private static final long OPEN_TIMEOUT_MILLIS = 2500L;
+    /**
+     * How often the lens is asked to focus again in {@code CONTROL_AF_MODE_AUTO}, as
+     * {@link AutoFocusManager} does for Camera1.
+     */
+    private static final long AUTO_FOCUS_INTERVAL_MS = 2000L;
+
+    private final android.hardware.camera2.CameraManager cameraService;
+    private final Runnable previewFailedCallback;
+    private HandlerThread thread;
+    private Handler handler;
+    private CameraDevice device;
+    private ImageReader reader;
+    private ImageFrameDispatcher dispatcher;
+    private CameraCaptureSession session;
+    private Surface previewSurface;
+    private Size previewSize;
+    private Size decodeSize;
+    private int focusMode;
+    private boolean flashAvailable;
+    private boolean torch;
+    private boolean previewing;
+    /**
+     * Readers of earlier sessions, with the dispatchers which handed out their images, kept until
+     * the pipeline has handed back every image it holds.
+     */
+    private final Map<ImageFrameDispatcher, ImageReader> retiredReaders = new HashMap<>();
+    private final Runnable autoFocusTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (Camera2Backend.this) {
+                triggerAutoFocus();
+            }
+        }
+    };
+
+    /**
+     * @param previewFailedCallback Run, on a thread of the backend's own, if the camera rejects the
+     *                              preview and decode streams once the preview has been started.
+     */
+    Camera2Backend(Context context, Runnable previewFailedCallback) {
+        this.previewFailedCallback = previewFailedCallback;
+        cameraService = (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    /**
+     * @return {@code true} if this version of Android has Camera2.
+     */
+    static boolean isAvailable() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Opens a camera and sets up the stream of frames to decode. Blocks until the camera is open.
+     *
+     * @param requestedCameraId              The index of the camera to open, or a negative value
+     *                                       for the first one facing back.
+     * @param cwRotationFromNaturalToDisplay Clockwise rotation in degrees of the display.
+     * @param screenResolution               The size of the screen, which the preview fills.
+     * @param imageCount                     Number of images the pipeline may hold at once.
+     * @throws IOException if there is no camera Camera2 drives natively, or it fails to open.
+     */
+    void open(int requestedCameraId, int cwRotationFromNaturalToDisplay, Point screenResolution, int imageCount)
+            throws IOException {
+        synchronized (this) {
+            // each session streams to a reader of its own
+            retireReader();
+        }
+        try {
+            String cameraId = chooseCamera(requestedCameraId);
+            if (cameraId == null) {
+                throw new IOException("No camera which Camera2 drives natively");
+            }
+            CameraCharacteristics characteristics = cameraService.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            float screenAspect = (float) Math.max(screenResolution.x, screenResolution.y) /
+                    Math.min(screenResolution.x, screenResolution.y);
+            Size thePreviewSize = chooseSize(map.getOutputSizes(SurfaceHolder.class), MAX_PREVIEW_WIDTH,
+                    MAX_PREVIEW_HEIGHT, screenAspect);
+            if (thePreviewSize == null) {
+                throw new IOException("No preview size for " + screenResolution);
+            }
+            // Same aspect as the preview, so that the framing rect maps onto the frames decoded
+            Size theDecodeSize = chooseSize(map.getOutputSizes(ImageFormat.YUV_420_888), MAX_DECODE_WIDTH,
+                    MAX_DECODE_HEIGHT, (float) thePreviewSize.getWidth() / thePreviewSize.getHeight());
+            if (theDecodeSize == null) {
+                throw new IOException("No YUV_420_888 size up to " + MAX_DECODE_WIDTH + 'x' + MAX_DECODE_HEIGHT);
+            }
+            Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            int orientation = sensorOrientation == null ? 90 : sensorOrientation;
+            int rotation;
+            if (facing != null && facing == CameraMetadata.LENS_FACING_FRONT) {
+                rotation = (orientation + cwRotationFromNaturalToDisplay) % 360;
+            } else {
+                rotation = (360 + orientation - cwRotationFromNaturalToDisplay) % 360;
+            }
+            Log.i(TAG, "Camera " + cameraId + ": preview " + thePreviewSize + ", decoding " + theDecodeSize +
+                    " turned " + rotation);
+            focusMode = chooseFocusMode(characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES));
+            Boolean flash = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+            flashAvailable = flash != null && flash;
+
+            thread = new HandlerThread(TAG);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+            final ImageFrameDispatcher theDispatcher = new ImageFrameDispatcher(rotation);
+            // One image more than the pipeline holds, which acquireLatestImage() needs to skip stale ones
+            ImageReader theReader = ImageReader.newInstance(theDecodeSize.getWidth(), theDecodeSize.getHeight(),
+                    ImageFormat.YUV_420_888, imageCount + 1);
+            theReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    Image image;
+                    try {
+                        image = reader.acquireLatestImage();
+                    } catch (IllegalStateException ise) {
+                        // the pipeline holds all images; like Camera1 out of buffers, drop frames
+                        return;
+                    }
+                    if (image != null) {
+                        theDispatcher.dispatch(image);
+                    }
+                }
+            }, handler);
+            synchronized (this) {
+                previewSize = thePreviewSize;
+                decodeSize = theDecodeSize;
+                dispatcher = theDispatcher;
+                reader = theReader;
+                torch = false;
+            }
+            CameraDevice theDevice = openDevice(cameraId);
+            synchronized (this) {
+                device = theDevice;
+            }
+        } catch (CameraAccessException cae) {
+            close();
+            throw new IOException(cae);
+        } catch (SecurityException se) {
+            close();
+            throw new IOException(se);
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return device != null;
+    }
+
+    /**
+     * @return the size of the preview stream, as stored, for the surface shown.
+     */
+    synchronized Point getPreviewResolution() {
+        return previewSize == null ? null : new Point(previewSize.getWidth(), previewSize.getHeight());
+    }
+
+    /**
+     * @return the size of the frames decoded, as stored.
+     */
+    synchronized Point getDecodeResolution() {
+        return decodeSize == null ? null : new Point(decodeSize.getWidth(), decodeSize.getHeight());
+    }
+
+    /**
+     * Starts streaming to the preview and to the decoder.
+     *
+     * @param holder The surface shown, already sized with {@link #getPreviewResolution()}.
+     */
+    synchronized void startPreview(SurfaceHolder holder) {
+        if (device == null || previewing) {
+            return;
+        }
+        previewSurface = holder.getSurface();
+        try {
+            device.createCaptureSession(Arrays.asList(previewSurface, reader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(CameraCaptureSession session) {
+                            onSessionConfigured(session);
+                        }
+
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession session) {
+                            onSessionConfigureFailed(session);
+                        }
+                    }, handler);
+        } catch (CameraAccessException cae) {
+            throw new IllegalStateException("Could not start the preview", cae);
+        }
+        previewing = true;
+    }
+
+    private synchronized void onSessionConfigured(CameraCaptureSession theSession) {
+        if (!previewing || device == null) {
+            // stopped while the session was being set up
+            theSession.close();
+            return;
+        }
+        session = theSession;
+        repeatRequest();
+        triggerAutoFocus();
+    }
+
+    private void onSessionConfigureFailed(CameraCaptureSession theSession) {
+        Log.w(TAG, "Camera rejected the preview and decode streams");
+        theSession.close();
+        boolean wasPreviewing;
+        synchronized (this) {
+            wasPreviewing = previewing && device != null;
+            previewing = false;
+        }
+        if (wasPreviewing) {
+            previewFailedCallback.run();
+        }
+    }
+
+    synchronized void stopPreview() {
+        previewing = false;
+        if (handler != null) {
+            handler.removeCallbacks(autoFocusTask);
+        }
+        if (dispatcher != null) {
+            dispatcher.setListener(null);
+        }
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+
+    synchronized void setTorch(boolean newSetting) {
+        if (flashAvailable && torch != newSetting) {
+            torch = newSetting;
+            repeatRequest();
+        }
+    }
+
+    synchronized boolean getTorchState() {
+        return torch;
+    }
+
+    /**
+     * @param listener The listener to pass frames to, or {@code null} to stop.
+     */
+    synchronized void setListener(PreviewFrameListener listener) {
+        if (dispatcher != null) {
+            dispatcher.setListener(listener);
+        }
+    }
+
+    /**
+     * Closes the image a frame's plane belongs to.
+     *
+     * @return {@code false} if the plane did not come from here.
+     */
+    synchronized boolean release(ByteBuffer plane) {
+        if (dispatcher != null && dispatcher.release(plane)) {
+            return true;
+        }
+        for (Iterator<Map.Entry<ImageFrameDispatcher, ImageReader>> iterator = retiredReaders.entrySet().iterator();
+             iterator.hasNext(); ) {
+            Map.Entry<ImageFrameDispatcher, ImageReader> entry = iterator.next();
+            if (entry.getKey().release(plane)) {
+                if (entry.getKey().getOutstandingCount() == 0) {
+                    entry.getValue().close();
+                    iterator.remove();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the camera. The reader, whose images the pipeline may still be reading, is closed once
+     * they have all been handed back.
+     */
+    synchronized void close() {
+        stopPreview();
+        if (device != null) {
+            device.close();
+            device = null;
+        }
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+        }
+        retireReader();
+    }
+
+    /**
+     * Parts with the current reader: closes it, or if the pipeline still holds images of it, keeps
+     * it along with its dispatcher until they have all been handed back. Lock held.
+     */
+    private void retireReader() {
+        if (reader == null) {
+            return;
+        }
+        if (dispatcher.getOutstandingCount() > 0) {
+            retiredReaders.put(dispatcher, reader);
+        } else {
+            reader.close();
+        }
+        reader = null;
+        dispatcher = null;
+    }
+
+    /**
+     * Sends the repeating request for the current settings. Lock held.
+     */
+    private void repeatRequest() {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.setRepeatingRequest(buildRequest().build(), null, handler);
+        } catch (CameraAccessException cae) {
+            Log.w(TAG, "Could not send the preview request", cae);
+        } catch (IllegalStateException ise) {
+            // the session or camera was closed meanwhile
+            Log.w(TAG, "Could not send the preview request", ise);
+        }
+    }
+
+    /**
+     * In {@code CONTROL_AF_MODE_AUTO} the lens only moves when asked to, so asks it to focus now,
+     * and again every {@value #AUTO_FOCUS_INTERVAL_MS} ms while previewing. Lock held.
+     */
+    private void triggerAutoFocus() {
+        if (session == null || focusMode != CameraMetadata.CONTROL_AF_MODE_AUTO) {
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = buildRequest();
+            builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
+            session.capture(builder.build(), null, handler);
+        } catch (CameraAccessException cae) {
+            Log.w(TAG, "Could not ask the camera to focus", cae);
+        } catch (IllegalStateException ise) {
+            // the session or camera was closed meanwhile
+            Log.w(TAG, "Could not ask the camera to focus", ise);
+            return;
+        }
+        handler.removeCallbacks(autoFocusTask);
+        handler.postDelayed(autoFocusTask, AUTO_FOCUS_INTERVAL_MS);
+    }
+
+    /**
+     * @return a request streaming to the preview and the decoder with the current settings. Lock
+     * held.
+     */
+    private CaptureRequest.Builder buildRequest() throws CameraAccessException {
+        CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        builder.addTarget(previewSurface);
+        builder.addTarget(reader.getSurface());
+        builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+        builder.set(CaptureRequest.CONTROL_AF_MODE, focusMode);
+        builder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+        builder.set(CaptureRequest.FLASH_MODE, torch ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+        return builder;
+    }
+
+    /**
+     * Opens the camera, waiting for it to be opened on the camera thread.
+     */
+    private CameraDevice openDevice(String cameraId) throws CameraAccessException, IOException {
+        OpenCallback callback = new OpenCallback();
+        cameraService.openCamera(cameraId, callback, handler);
+        try {
+            if (!callback.opened.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                callback.abandon();
+                throw new IOException("Timed out opening camera " + cameraId);
+            }
+        } catch (InterruptedException ie) {
+            callback.abandon();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted opening camera " + cameraId);
+        }
+        CameraDevice theDevice = callback.getDevice();
+        if (theDevice == null) {
+            throw new IOException("Camera " + cameraId + " failed to open");
+        }
+        return theDevice;
+    }
+
+    /**
+     * @return the ID of the requested camera, as numbered by Camera1, or else of the first camera
+     * facing back, or else of the first camera; or {@code null} if it is not driven natively, or
+     * can't be told apart from the others.
+     */
+    private String chooseCamera(int requestedCameraId) throws CameraAccessException {
+        String[] cameraIds = cameraService.getCameraIdList();
+        if (cameraIds.length == 0) {
+            return null;
+        }
+        String cameraId = null;
+        if (requestedCameraId >= 0) {
+            cameraId = findCamera1Camera(cameraIds, requestedCameraId);
+            if (cameraId == null) {
+                Log.i(TAG, "No Camera2 camera known to match Camera1 camera #" + requestedCameraId);
+                return null;
+            }
+        } else {
+            for (String id : cameraIds) {
+                Integer facing = cameraService.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+                if (facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+                    cameraId = id;
+                    break;
+                }
+            }
+            if (cameraId == null) {
+                cameraId = cameraIds[0];
+            }
+        }
+        Integer level = cameraService.getCameraCharacteristics(cameraId)
+                .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        if (level == null || level == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+            Log.i(TAG, "Camera " + cameraId + " is only emulated by Camera2");
+            return null;
+        }
+        return cameraId;
+    }
+
+    /**
+     * Finds the camera Camera1 numbers {@code index}. The two APIs needn't list cameras in the same
+     * order, so it goes by the direction they face: the nth Camera1 camera facing one way is taken
+     * to be the nth Camera2 camera facing the same way.
+     *
+     * @return the Camera2 ID, or {@code null} if Camera1 has no such camera, or the cameras facing
+     * its way don't pair up.
+     */
+    private String findCamera1Camera(String[] cameraIds, int index) throws CameraAccessException {
+        int numCameras = Camera.getNumberOfCameras();
+        if (index >= numCameras) {
+            return null;
+        }
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        Camera.getCameraInfo(index, cameraInfo);
+        int camera1Facing = cameraInfo.facing;
+        int lensFacing = camera1Facing == Camera.CameraInfo.CAMERA_FACING_FRONT ?
+                CameraMetadata.LENS_FACING_FRONT : CameraMetadata.LENS_FACING_BACK;
+        int camera1Rank = 0;
+        int camera1Count = 0;
+        for (int i = 0; i < numCameras; i++) {
+            Camera.getCameraInfo(i, cameraInfo);
+            if (cameraInfo.facing == camera1Facing) {
+                if (i < index) {
+                    camera1Rank++;
+                }
+                camera1Count++;
+            }
+        }
+        List<String> matching = new ArrayList<>();
+        for (String id : cameraIds) {
+            Integer facing = cameraService.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == lensFacing) {
+                matching.add(id);
+            }
+        }
+        // With a different number of cameras facing that way, there's no telling which is which
+        if (matching.size() != camera1Count) {
+            return null;
+        }
+        return matching.get(camera1Rank);
+    }
+
+    /**
+     * @return the largest size within the bounds whose aspect ratio, width over height, is
+     * closest to {@code aspect}, or {@code null} if none fits.
+     */
+    private static Size chooseSize(Size[] sizes, int maxWidth, int maxHeight, float aspect) {
+        if (sizes == null) {
+            return null;
+        }
+        Size best = null;
+        float bestError = Float.MAX_VALUE;
+        for (Size size : sizes) {
+            int width = size.getWidth();
+            int height = size.getHeight();
+            if (width > maxWidth || height > maxHeight) {
+                continue;
+            }
+            float error = Math.abs((float) width / height - aspect);
+            if (best == null || error < bestError - ASPECT_TOLERANCE ||
+                    (error < bestError + ASPECT_TOLERANCE && width * height > best.getWidth() * best.getHeight())) {
+                best = size;
+                bestError = error;
+            }
+        }
+        return best;
+    }
+
+    private static int chooseFocusMode(int[] availableModes) {
+        int[] preferred = {
+                CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE,
+                CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO,
+                CameraMetadata.CONTROL_AF_MODE_AUTO,
+        };
+        if (availableModes != null) {
+            for (int mode : preferred) {
+                for (int available : availableModes) {
+                    if (mode == available) {
+                        return mode;
+                    }
+                }
+            }
+        }
+        return CameraMetadata.CONTROL_AF_MODE_OFF;
+    }
+
+    /**
+     * Hands the camera over once it is open, or closes it if {@link #openDevice(String)} has
+     * given up on it by then.
+     */
+    private static final class OpenCallback extends CameraDevice.StateCallback {
+
+        private final CountDownLatch opened = new CountDownLatch(1);
+        private CameraDevice device;
+        private boolean abandoned;
+
+        @Override
+        public void onOpened(CameraDevice camera) {
+            synchronized (this) {
+                if (abandoned) {
+                    camera.close();
+                } else {
+                    device = camera;
+                }
+            }
+            opened.countDown();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            Log.w(TAG, "Camera " + camera.getId() + " disconnected");
+            closeDevice(camera);
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            Log.w(TAG, "Camera " + camera.getId() + " failed with error " + error);
+            closeDevice(camera);
+        }
+
+        private void closeDevice(CameraDevice camera) {
+            synchronized (this) {
+                device = null;
+            }
+            camera.close();
+            opened.countDown();
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            if (device != null) {
+                device.close();
+                device = null;
+            }
+        }
+
+        synchronized CameraDevice getDevice() {
+            return device;
+        }
+    }
+
+}
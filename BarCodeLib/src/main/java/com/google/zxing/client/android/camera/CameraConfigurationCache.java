@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.os.Build;
+
+import com.google.zxing.client.android.camera.open.CameraFacing;
+
+import java.util.regex.Pattern;
+
+/**
+ * Remembers how a camera was set up through Camera1, so that later launches can skip the probing:
+ * looking through the cameras for one facing back, searching the supported preview sizes, picking
+ * a focus mode, and trying parameters the driver may reject before falling back to safe mode.
+ * <p>
+ * Entries are kept in the app's private preferences, per requested camera and screen size, and
+ * are all forgotten when the system is updated, as the driver may have changed with it. Only used
+ * on the camera thread.
+ */
+final class CameraConfigurationCache {
+
+    private static final String PREFERENCES_NAME = "zxing_camera_configuration";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final Pattern FIELD_PATTERN = Pattern.compile(",");
+
+    private final SharedPreferences preferences;
+    private boolean checked;
+
+    CameraConfigurationCache(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the setup remembered for the camera and screen size, or {@code null} if there is none.
+     */
+    Entry get(int requestedCameraId, Point screenResolution) {
+        if (!checked) {
+            checked = true;
+            if (!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+                preferences.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+                return null;
+            }
+        }
+        return Entry.parse(preferences.getString(key(requestedCameraId, screenResolution), null));
+    }
+
+    void put(int requestedCameraId, Point screenResolution, Entry entry) {
+        preferences.edit().putString(key(requestedCameraId, screenResolution), entry.toString()).apply();
+    }
+
+    void remove(int requestedCameraId, Point screenResolution) {
+        preferences.edit().remove(key(requestedCameraId, screenResolution)).apply();
+    }
+
+    private static String key(int requestedCameraId, Point screenResolution) {
+        return "camera" + requestedCameraId + '@' + screenResolution.x + 'x' + screenResolution.y;
+    }
+
+    /**
+     * How a camera was set up.
+     */
+    static final class Entry {
+
+        final int index;
+        final CameraFacing facing;
+        final int orientation;
+        final Point previewSize;
+        /**
+         * {@code null} if the driver reports none.
+         */
+        final String focusMode;
+        final boolean safeMode;
+
+        Entry(int index, CameraFacing facing, int orientation, Point previewSize, String focusMode, boolean safeMode) {
+            this.index = index;
+            this.facing = facing;
+            this.orientation = orientation;
+            this.previewSize = previewSize;
+            this.focusMode = focusMode;
+            this.safeMode = safeMode;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(index) + ',' + facing.name() + ',' + orientation + ',' + previewSize.x + ',' +
+                    previewSize.y + ',' + safeMode + ',' + (focusMode == null ? "" : focusMode);
+        }
+
+        static Entry parse(String saved) {
+            if (saved == null) {
+                return null;
+            }
+            String[] fields = FIELD_PATTERN.split(saved, -1);
+            if (fields.length != 7) {
+                return null;
+            }
+            try {
+                return new Entry(Integer.parseInt(fields[0]),
+                        CameraFacing.valueOf(fields[1]),
+                        Integer.parseInt(fields[2]),
+                        new Point(Integer.parseInt(fields[3]), Integer.parseInt(fields[4])),
+                        fields[6].isEmpty() ? null : fields[6],
+                        Boolean.parseBoolean(fields[5]));
+            } catch (IllegalArgumentException iae) {
+                // written by a version which kept something else
+                return null;
+            }
+        }
+    }
+
+}
@@ -50,6 +50,7 @@ final class CameraConfigurationManager {
     private Point cameraResolution;
     private Point bestPreviewSize;
     private Point previewSizeOnScreen;
+    private String focusMode;
 
     CameraConfigurationManager(Context context) {
         this.context = context;
@@ -57,37 +58,13 @@ final class CameraConfigurationManager {
 
     /**
      * Reads, one time, values from the camera that are needed by the app.
+     *
+     * @param cwRotationFromNaturalToDisplay As returned by {@link #initFromDisplay()}, which must
+     *                                       have been called first.
+     * @param cachedPreviewSize              The preview size picked on an earlier launch, or
+     *                                       {@code null} to search the supported ones.
      */
-    void initFromCameraParameters(OpenCamera camera) {
-        Camera.Parameters parameters = camera.getCamera().getParameters();
-        WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        Display display = manager.getDefaultDisplay();
-
-        int displayRotation = display.getRotation();
-        int cwRotationFromNaturalToDisplay;
-        switch (displayRotation) {
-            case Surface.ROTATION_0:
-                cwRotationFromNaturalToDisplay = 0;
-                break;
-            case Surface.ROTATION_90:
-                cwRotationFromNaturalToDisplay = 90;
-                break;
-            case Surface.ROTATION_180:
-                cwRotationFromNaturalToDisplay = 180;
-                break;
-            case Surface.ROTATION_270:
-                cwRotationFromNaturalToDisplay = 270;
-                break;
-            default:
-                // Have seen this return incorrect values like -90
-                if (displayRotation % 90 == 0) {
-                    cwRotationFromNaturalToDisplay = (360 + displayRotation) % 360;
-                } else {
-                    throw new IllegalArgumentException("Bad rotation: " + displayRotation);
-                }
-        }
-        Log.i(TAG, "Display at: " + cwRotationFromNaturalToDisplay);
-
+    void initFromCameraParameters(OpenCamera camera, int cwRotationFromNaturalToDisplay, Point cachedPreviewSize) {
         int cwRotationFromNaturalToCamera = camera.getOrientation();
         Log.i(TAG, "Camera at: " + cwRotationFromNaturalToCamera);
 
@@ -108,13 +85,15 @@ final class CameraConfigurationManager {
         }
         Log.i(TAG, "Clockwise rotation from display to camera: " + cwNeededRotation);
 
-        Point theScreenResolution = new Point();
-        display.getSize(theScreenResolution);
-        screenResolution = theScreenResolution;
-        Log.i(TAG, "Screen resolution in current orientation: " + screenResolution);
-        cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+        if (cachedPreviewSize == null) {
+            Camera.Parameters parameters = camera.getCamera().getParameters();
+            cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+        } else {
+            cameraResolution = new Point(cachedPreviewSize);
+        }
         Log.i(TAG, "Camera resolution: " + cameraResolution);
-        bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+        // Same search, same answer; kept apart as the camera may yet settle on another size
+        bestPreviewSize = new Point(cameraResolution);
         Log.i(TAG, "Best available preview size: " + bestPreviewSize);
 
         boolean isScreenPortrait = screenResolution.x < screenResolution.y;
@@ -128,7 +107,57 @@ final class CameraConfigurationManager {
         Log.i(TAG, "Preview size on screen: " + previewSizeOnScreen);
     }
 
-    void setDesiredCameraParameters(OpenCamera camera, FrontLightMode frontLightMode, boolean safeMode) {
+    /**
+     * Reads, one time, the rotation and size of the display. This is all a camera driven through
+     * Camera2 needs from here, as it picks its own sizes.
+     *
+     * @return clockwise rotation in degrees from the natural orientation of the device to the display.
+     */
+    int initFromDisplay() {
+        WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = manager.getDefaultDisplay();
+
+        int displayRotation = display.getRotation();
+        int cwRotationFromNaturalToDisplay;
+        switch (displayRotation) {
+            case Surface.ROTATION_0:
+                cwRotationFromNaturalToDisplay = 0;
+                break;
+            case Surface.ROTATION_90:
+                cwRotationFromNaturalToDisplay = 90;
+                break;
+            case Surface.ROTATION_180:
+                cwRotationFromNaturalToDisplay = 180;
+                break;
+            case Surface.ROTATION_270:
+                cwRotationFromNaturalToDisplay = 270;
+                break;
+            default:
+                // Have seen this return incorrect values like -90
+                if (displayRotation % 90 == 0) {
+                    cwRotationFromNaturalToDisplay = (360 + displayRotation) % 360;
+                } else {
+                    throw new IllegalArgumentException("Bad rotation: " + displayRotation);
+                }
+        }
+        Log.i(TAG, "Display at: " + cwRotationFromNaturalToDisplay);
+
+        Point theScreenResolution = new Point();
+        display.getSize(theScreenResolution);
+        screenResolution = theScreenResolution;
+        Log.i(TAG, "Screen resolution in current orientation: " + screenResolution);
+        return cwRotationFromNaturalToDisplay;
+    }
+
+    /**
+     * @param cachedFocusMode The focus mode picked on an earlier launch, or {@code null} to pick one
+     *                        among the supported ones. With a cached mode the preview size is also
+     *                        taken to have been checked, and is not read back.
+     */
+    void setDesiredCameraParameters(OpenCamera camera,
+                                    FrontLightMode frontLightMode,
+                                    boolean safeMode,
+                                    String cachedFocusMode) {
 
         Camera theCamera = camera.getCamera();
         Camera.Parameters parameters = theCamera.getParameters();
@@ -146,11 +175,16 @@ final class CameraConfigurationManager {
 
         initializeTorch(parameters, frontLightMode, safeMode);
 
-        CameraConfigurationUtils.setFocus(
-                parameters,
-                AUTO_FOCUS,
-                DISABLE_CONTINUOUS_FOCUS,
-                safeMode);
+        if (cachedFocusMode == null) {
+            CameraConfigurationUtils.setFocus(
+                    parameters,
+                    AUTO_FOCUS,
+                    DISABLE_CONTINUOUS_FOCUS,
+                    safeMode);
+        } else {
+            parameters.setFocusMode(cachedFocusMode);
+        }
+        focusMode = parameters.getFocusMode();
 
         if (!safeMode) {
             if (INVERT_SCAN) {
@@ -175,6 +209,9 @@ final class CameraConfigurationManager {
 
         theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
 
+        if (cachedFocusMode != null) {
+            return;
+        }
         Camera.Parameters afterParameters = theCamera.getParameters();
         Camera.Size afterSize = afterParameters.getPreviewSize();
         if (afterSize != null && (bestPreviewSize.x != afterSize.width || bestPreviewSize.y != afterSize.height)) {
@@ -201,6 +238,14 @@ final class CameraConfigurationManager {
         return bestPreviewSize;
     }
 
+    /**
+     * @return the focus mode set by {@link #setDesiredCameraParameters}, or {@code null} if the
+     * driver reports none.
+     */
+    String getFocusMode() {
+        return focusMode;
+    }
+
     Point getPreviewSizeOnScreen() {
         return previewSizeOnScreen;
     }
@@ -209,6 +254,13 @@ final class CameraConfigurationManager {
         return cameraResolution;
     }
 
+    /**
+     * @param cameraResolution The size of the frames decoded, as stored, when they come from Camera2.
+     */
+    void setCameraResolution(Point cameraResolution) {
+        this.cameraResolution = cameraResolution;
+    }
+
     Point getScreenResolution() {
         return screenResolution;
     }
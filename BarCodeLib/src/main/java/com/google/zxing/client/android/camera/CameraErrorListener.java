@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+/**
+ * Learns of the camera failing to open or to start its preview, on the main thread. As
+ * {@link CameraManager} talks to the camera on a thread of its own, such failures can no longer be
+ * thrown to the caller.
+ *
+ * @see CameraManager#setErrorListener(CameraErrorListener)
+ */
+public interface CameraErrorListener {
+
+    /**
+     * @param e The reason, typically an {@link java.io.IOException} if there is no camera to open,
+     *          or a {@link RuntimeException} from the driver.
+     */
+    void onCameraError(Exception e);
+
+}
@@ -17,27 +17,49 @@
 package com.google.zxing.client.android.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
-import com.google.zxing.PlanarYUVLuminanceSource;
 import com.google.zxing.client.android.camera.open.OpenCamera;
 import com.google.zxing.client.android.camera.open.OpenCameraInterface;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * This object wraps the Camera service object and expects to be the only one talking to it. The
  * implementation encapsulates the steps needed to take preview-sized images, which are used for
  * both preview and decoding.
+ * <p>
+ * Where Camera2 drives the camera natively, it is used instead, through {@link Camera2Backend}:
+ * the frames decoded then come from a stream of their own, smaller than the preview, and are read
+ * in place rather than copied into {@code byte[]} callbacks. Camera1 remains the fallback for
+ * older devices and cameras Camera2 only emulates, or when Camera2 fails to open.
+ * <p>
+ * The camera is only ever talked to on the {@link CameraThread}. Opening the driver, starting and
+ * stopping the preview, the torch and the frame listener are commands queued to it, in the order
+ * they are called, and return straight away; failures are reported to the
+ * {@link CameraErrorListener}. Preview frames and focus callbacks are delivered on that thread as
+ * well, so none of the camera's work is done on the main thread. As the queue is shared by all
+ * managers, a camera opened for a new screen always comes after the close of the one before, and
+ * a driver reopened before its close got its turn is kept open instead.
+ * <p>
+ * {@link #prewarm(Context)} opens the camera before the scanner starts. Camera1 setups are
+ * remembered in a {@link CameraConfigurationCache}, so later launches skip probing the driver.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
-public final class CameraManager {
+public final class CameraManager implements FrameSource {
 
     private static final String TAG = CameraManager.class.getSimpleName();
 
@@ -51,77 +73,338 @@ public final class CameraManager {
     private static final int MAX_FRAME_WIDTH_LANDSCAPE = 1200; // = 5/8 * 1920
     private static final int MAX_FRAME_HEIGHT_LANDSCAPE = 675; // = 5/8 * 1080
 
+    private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+    /**
+     * How long a prewarmed camera is kept open for a scanner which does not start.
+     */
+    private static final long PREWARM_TIMEOUT_MS = 10000L;
+
+    // Commands for the camera thread
+    private static final int OPEN = 1;
+    private static final int CLOSE = 2;
+    private static final int START_PREVIEW = 3;
+    private static final int STOP_PREVIEW = 4;
+    private static final int SET_TORCH = 5;
+    private static final int SET_LISTENER = 6;
+    private static final int RELEASE_BUFFER = 7;
+    private static final int CAMERA2_FAILED = 8;
+
+    private static final Runnable PREWARM_TIMEOUT = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "Prewarmed camera not used; closing it");
+            cancelPrewarm();
+        }
+    };
+    private static CameraManager prewarmed;
+
+    private final Context context;
     private final CameraConfigurationManager configManager;
     /**
-     * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
-     * clear the handler so it will only receive one message.
+     * Preview frames are delivered here, which we pass on to the registered listener.
      */
     private final PreviewCallback previewCallback;
+    /**
+     * {@code null} before Lollipop.
+     */
+    private final Camera2Backend camera2;
+    private final Handler cameraHandler;
+    private final Handler mainHandler;
+    private volatile CameraErrorListener errorListener;
+    private boolean openRequested;
+    private boolean camera2Enabled = true;
+    private boolean usingCamera2;
     private OpenCamera camera;
-    private AutoFocusManager autoFocusManager;
     private Rect framingRect;
     private Rect framingRectInPreview;
     private boolean initialized;
-    private boolean previewing;
     private int requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
     private int requestedFramingRectWidth;
     private int requestedFramingRectHeight;
+    private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+    // Only touched on the camera thread
+    private SurfaceHolder previewHolder;
+    private AutoFocusManager autoFocusManager;
+    private boolean previewing;
+    // The arrays of the ring the driver currently fills; anything else handed back is stale
+    private Set<byte[]> previewBuffers = Collections.emptySet();
+    private PreviewFrameListener frameListener;
+    // Camera2 failed to start the preview; Camera1 is used from then on
+    private boolean camera2Failed;
+    private CameraConfigurationCache configurationCache;
+    // What the camera was opened for
+    private int openedCameraId;
+    private int openedRotation;
+    private Point openedScreenResolution;
+    private int openedImageCount;
 
     public CameraManager(Context context) {
+        this.context = context;
         this.configManager = new CameraConfigurationManager(context);
         previewCallback = new PreviewCallback(configManager);
+        camera2 = Camera2Backend.isAvailable() ? new Camera2Backend(context, new Runnable() {
+            @Override
+            public void run() {
+                cameraHandler.sendEmptyMessage(CAMERA2_FAILED);
+            }
+        }) : null;
+        cameraHandler = new CameraHandler(CameraThread.getLooper());
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Opens and sets up the camera ahead of time, on the camera thread, so that a scanner started
+     * shortly after finds it ready: {@link #obtain(Context)} hands it over. It is closed again if no
+     * scanner takes it within {@value #PREWARM_TIMEOUT_MS} ms, or on {@link #cancelPrewarm()}. The
+     * app needs the camera permission already.
+     */
+    public static void prewarm(Context context) {
+        synchronized (CameraManager.class) {
+            if (prewarmed == null) {
+                prewarmed = new CameraManager(context.getApplicationContext());
+                // Without a surface, which the scanner brings along
+                prewarmed.cameraHandler.obtainMessage(OPEN).sendToTarget();
+            }
+            prewarmed.mainHandler.removeCallbacks(PREWARM_TIMEOUT);
+            prewarmed.mainHandler.postDelayed(PREWARM_TIMEOUT, PREWARM_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Closes the camera opened by {@link #prewarm(Context)}, if no scanner has taken it yet.
+     */
+    public static void cancelPrewarm() {
+        CameraManager theManager;
+        synchronized (CameraManager.class) {
+            theManager = prewarmed;
+            prewarmed = null;
+        }
+        if (theManager != null) {
+            theManager.mainHandler.removeCallbacks(PREWARM_TIMEOUT);
+            theManager.closeDriver();
+        }
+    }
+
+    /**
+     * @return the manager of the camera opened by {@link #prewarm(Context)}, if there is one, or
+     * else a new manager. The settings of either take effect on {@link #openDriver(SurfaceHolder)};
+     * should they differ from the prewarmed camera's, it is opened again.
+     */
+    public static CameraManager obtain(Context context) {
+        synchronized (CameraManager.class) {
+            CameraManager theManager = prewarmed;
+            if (theManager != null) {
+                prewarmed = null;
+                theManager.mainHandler.removeCallbacks(PREWARM_TIMEOUT);
+                return theManager;
+            }
+        }
+        return new CameraManager(context);
+    }
+
+    /**
+     * @param listener Learns, on the main thread, of the camera failing to open or to start its
+     *                 preview.
+     */
+    public void setErrorListener(CameraErrorListener listener) {
+        errorListener = listener;
     }
 
     /**
-     * Opens the camera driver and initializes the hardware parameters.
+     * Opens the camera driver and initializes the hardware parameters, on the camera thread.
+     * Failures are reported to the {@link CameraErrorListener}. Should the driver still be waiting
+     * to be closed, the close is called off and the camera kept.
      *
      * @param holder The surface object which the camera will draw preview frames into.
-     * @throws IOException Indicates the camera driver failed to open.
      */
-    public synchronized void openDriver(SurfaceHolder holder) throws IOException {
+    public void openDriver(SurfaceHolder holder) {
+        synchronized (this) {
+            openRequested = true;
+        }
+        // If the camera thread has taken the close already, the camera is simply opened again
+        cameraHandler.removeMessages(CLOSE);
+        cameraHandler.obtainMessage(OPEN, holder).sendToTarget();
+    }
+
+    private void doOpen(SurfaceHolder holder) throws IOException {
+        int cameraId;
+        boolean camera2Allowed;
+        int imageCount;
+        int cwRotationFromNaturalToDisplay;
+        Point screenResolution;
+        synchronized (this) {
+            cameraId = requestedCameraId;
+            camera2Allowed = camera2 != null && camera2Enabled && !camera2Failed;
+            imageCount = previewBufferCount;
+            cwRotationFromNaturalToDisplay = configManager.initFromDisplay();
+            screenResolution = configManager.getScreenResolution();
+        }
+        if ((camera != null || usingCamera2) && (cameraId != openedCameraId ||
+                cwRotationFromNaturalToDisplay != openedRotation || !screenResolution.equals(openedScreenResolution) ||
+                (usingCamera2 && (!camera2Allowed || imageCount != openedImageCount)))) {
+            // Prewarmed for other settings, or another orientation
+            Log.i(TAG, "Reopening the camera for the current settings");
+            doClose();
+        }
+        if (usingCamera2) {
+            attachCamera2(holder);
+            return;
+        }
+        if (camera == null && camera2Allowed) {
+            openCamera2(holder, cameraId, cwRotationFromNaturalToDisplay, screenResolution, imageCount);
+            if (usingCamera2) {
+                return;
+            }
+        }
         OpenCamera theCamera = camera;
         if (theCamera == null) {
-            theCamera = OpenCameraInterface.open(requestedCameraId);
-            if (theCamera == null) {
-                throw new IOException("Camera.open() failed to return object from driver");
+            theCamera = openCamera1(cameraId, cwRotationFromNaturalToDisplay, screenResolution);
+        }
+        if (holder != null) {
+            theCamera.getCamera().setPreviewDisplay(holder);
+        }
+    }
+
+    /**
+     * Opens the camera through Camera1 and sets it up, the way it was set up on an earlier launch if
+     * there was one.
+     */
+    private OpenCamera openCamera1(int cameraId, int cwRotationFromNaturalToDisplay, Point screenResolution)
+            throws IOException {
+        if (configurationCache == null) {
+            configurationCache = new CameraConfigurationCache(context);
+        }
+        CameraConfigurationCache.Entry cached = configurationCache.get(cameraId, screenResolution);
+        // Opened here so that Camera1 calls back on this thread
+        OpenCamera theCamera;
+        if (cached == null) {
+            theCamera = OpenCameraInterface.open(cameraId);
+        } else {
+            try {
+                theCamera = OpenCameraInterface.open(cached.index, cached.facing, cached.orientation);
+            } catch (RuntimeException re) {
+                configurationCache.remove(cameraId, screenResolution);
+                throw re;
             }
-            camera = theCamera;
         }
+        if (theCamera == null) {
+            throw new IOException("Camera.open() failed to return object from driver");
+        }
+        openedCameraId = cameraId;
+        openedRotation = cwRotationFromNaturalToDisplay;
+        openedScreenResolution = screenResolution;
 
-        if (!initialized) {
+        synchronized (this) {
+            camera = theCamera;
             initialized = true;
-            configManager.initFromCameraParameters(theCamera);
-            if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
-                setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
-                requestedFramingRectWidth = 0;
-                requestedFramingRectHeight = 0;
+            configManager.initFromCameraParameters(theCamera, cwRotationFromNaturalToDisplay,
+                    cached == null ? null : cached.previewSize);
+            applyRequestedFramingRect();
+        }
+
+        if (cached != null) {
+            try {
+                configManager.setDesiredCameraParameters(theCamera, FrontLightMode.AUTO, cached.safeMode,
+                        cached.focusMode);
+                return theCamera;
+            } catch (RuntimeException re) {
+                Log.w(TAG, "Camera rejected the parameters it took before; setting it up afresh", re);
+                configurationCache.remove(cameraId, screenResolution);
+                synchronized (this) {
+                    configManager.initFromCameraParameters(theCamera, cwRotationFromNaturalToDisplay, null);
+                    framingRectInPreview = null;
+                }
             }
         }
 
         Camera cameraObject = theCamera.getCamera();
         Camera.Parameters parameters = cameraObject.getParameters();
         String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
+        boolean safeMode = false;
         try {
-            configManager.setDesiredCameraParameters(theCamera, FrontLightMode.AUTO, false);
+            configManager.setDesiredCameraParameters(theCamera, FrontLightMode.AUTO, false, null);
         } catch (RuntimeException re) {
             // Driver failed
             Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
             Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
             // Reset:
-            if (parametersFlattened != null) {
-                parameters = cameraObject.getParameters();
-                parameters.unflatten(parametersFlattened);
-                try {
-                    cameraObject.setParameters(parameters);
-                    configManager.setDesiredCameraParameters(theCamera, FrontLightMode.AUTO, true);
-                } catch (RuntimeException re2) {
-                    // Well, darn. Give up
-                    Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
-                }
+            if (parametersFlattened == null) {
+                return theCamera;
+            }
+            parameters = cameraObject.getParameters();
+            parameters.unflatten(parametersFlattened);
+            try {
+                cameraObject.setParameters(parameters);
+                configManager.setDesiredCameraParameters(theCamera, FrontLightMode.AUTO, true, null);
+                safeMode = true;
+            } catch (RuntimeException re2) {
+                // Well, darn. Give up
+                Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+                return theCamera;
             }
         }
-        cameraObject.setPreviewDisplay(holder);
+        configurationCache.put(cameraId, screenResolution, new CameraConfigurationCache.Entry(theCamera.getIndex(),
+                theCamera.getFacing(), theCamera.getOrientation(), configManager.getBestPreviewSize(),
+                configManager.getFocusMode(), safeMode));
+        return theCamera;
+    }
 
+    /**
+     * Opens the camera through Camera2, if it drives it natively, leaving it to Camera1 otherwise.
+     */
+    private void openCamera2(SurfaceHolder holder,
+                             int cameraId,
+                             int cwRotationFromNaturalToDisplay,
+                             Point screenResolution,
+                             int imageCount) {
+        try {
+            camera2.open(cameraId, cwRotationFromNaturalToDisplay, screenResolution, imageCount);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Falling back to Camera1: " + ioe.getMessage());
+            return;
+        } catch (RuntimeException re) {
+            // Camera2 drivers have their share of bugs too
+            Log.w(TAG, "Falling back to Camera1", re);
+            camera2.close();
+            return;
+        }
+        openedCameraId = cameraId;
+        openedRotation = cwRotationFromNaturalToDisplay;
+        openedScreenResolution = screenResolution;
+        openedImageCount = imageCount;
+        synchronized (this) {
+            usingCamera2 = true;
+            configManager.setCameraResolution(camera2.getDecodeResolution());
+            initialized = true;
+            applyRequestedFramingRect();
+        }
+        attachCamera2(holder);
+    }
+
+    /**
+     * Sizes the surface shown for the Camera2 preview; {@code null} while prewarming.
+     */
+    private void attachCamera2(final SurfaceHolder holder) {
+        if (holder == null) {
+            return;
+        }
+        previewHolder = holder;
+        final Point previewResolution = camera2.getPreviewResolution();
+        // Views belong to the main thread
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                holder.setFixedSize(previewResolution.x, previewResolution.y);
+            }
+        });
+    }
+
+    private void applyRequestedFramingRect() {
+        if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
+            setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
+            requestedFramingRectWidth = 0;
+            requestedFramingRectHeight = 0;
+        }
     }
 
     /**
@@ -151,47 +434,105 @@ public final class CameraManager {
         }
     }
 
+
+    /**
+     * @return {@code true} from the time the driver is asked to open until it is asked to close.
+     */
     public synchronized boolean isOpen() {
-        return camera != null;
+        return openRequested;
     }
 
     /**
-     * Closes the camera driver if still in use.
+     * Closes the camera driver if still in use, on the camera thread.
      */
-    public synchronized void closeDriver() {
-        if (camera != null) {
-            camera.getCamera().release();
-            camera = null;
-            // Make sure to clear these each time we close the camera, so that any scanning rect
-            // requested by intent is forgotten.
-            framingRect = null;
-            framingRectInPreview = null;
+    public void closeDriver() {
+        synchronized (this) {
+            openRequested = false;
+        }
+        cameraHandler.sendEmptyMessage(CLOSE);
+    }
+
+    private void doClose() {
+        if (usingCamera2) {
+            camera2.close();
+            previewing = false;
+            previewHolder = null;
+            synchronized (this) {
+                usingCamera2 = false;
+                // Camera2 reads its settings on every open; should Camera1 open next, it starts afresh
+                initialized = false;
+                framingRect = null;
+                framingRectInPreview = null;
+            }
+        }
+        OpenCamera theCamera = camera;
+        if (theCamera != null) {
+            theCamera.getCamera().release();
+            synchronized (this) {
+                camera = null;
+                initialized = false;
+                // Make sure to clear these each time we close the camera, so that any scanning rect
+                // requested by intent is forgotten.
+                framingRect = null;
+                framingRectInPreview = null;
+            }
         }
     }
 
     /**
      * Asks the camera hardware to begin drawing preview frames to the screen.
      */
-    public synchronized void startPreview() {
+    public void startPreview() {
+        cameraHandler.sendEmptyMessage(START_PREVIEW);
+    }
+
+    private void doStartPreview() throws IOException {
+        if (usingCamera2) {
+            if (!previewing && previewHolder != null) {
+                try {
+                    camera2.startPreview(previewHolder);
+                } catch (RuntimeException re) {
+                    Log.w(TAG, "Camera2 could not start the preview", re);
+                    fallBackToCamera1(true);
+                    return;
+                }
+                previewing = true;
+            }
+            return;
+        }
         OpenCamera theCamera = camera;
         if (theCamera != null && !previewing) {
-            theCamera.getCamera().startPreview();
+            Camera cameraObject = theCamera.getCamera();
+            addPreviewBuffers(cameraObject);
+            cameraObject.setPreviewCallbackWithBuffer(previewCallback);
+            cameraObject.startPreview();
             previewing = true;
-            autoFocusManager = new AutoFocusManager(theCamera.getCamera());
+            autoFocusManager = new AutoFocusManager(theCamera.getCamera(), cameraHandler);
         }
     }
 
     /**
      * Tells the camera to stop drawing preview frames.
      */
-    public synchronized void stopPreview() {
+    public void stopPreview() {
+        cameraHandler.sendEmptyMessage(STOP_PREVIEW);
+    }
+
+    private void doStopPreview() {
+        if (usingCamera2) {
+            camera2.stopPreview();
+            previewing = false;
+            return;
+        }
         if (autoFocusManager != null) {
             autoFocusManager.stop();
             autoFocusManager = null;
         }
         if (camera != null && previewing) {
+            // Also drops the preview buffers still queued in the driver
+            camera.getCamera().setPreviewCallbackWithBuffer(null);
             camera.getCamera().stopPreview();
-            previewCallback.setHandler(null, 0);
+            previewCallback.setListener(null);
             previewing = false;
         }
     }
@@ -201,7 +542,15 @@ public final class CameraManager {
      *
      * @param newSetting if {@code true}, light should be turned on if currently off. And vice versa.
      */
-    public synchronized void setTorch(boolean newSetting) {
+    public void setTorch(boolean newSetting) {
+        cameraHandler.obtainMessage(SET_TORCH, newSetting ? 1 : 0, 0).sendToTarget();
+    }
+
+    private void doSetTorch(boolean newSetting) {
+        if (usingCamera2) {
+            camera2.setTorch(newSetting);
+            return;
+        }
         OpenCamera theCamera = camera;
         if (theCamera != null) {
             if (newSetting != configManager.getTorchState(theCamera.getCamera())) {
@@ -212,7 +561,7 @@ public final class CameraManager {
                 }
                 configManager.setTorch(theCamera.getCamera(), newSetting);
                 if (wasAutoFocusManager) {
-                    autoFocusManager = new AutoFocusManager(theCamera.getCamera());
+                    autoFocusManager = new AutoFocusManager(theCamera.getCamera(), cameraHandler);
                     autoFocusManager.start();
                 }
             }
@@ -220,21 +569,129 @@ public final class CameraManager {
     }
 
     /**
-     * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
-     * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-     * respectively.
+     * Allocates the ring of buffers the driver fills with preview frames, sized for the current
+     * preview size and format.
+     */
+    private void addPreviewBuffers(Camera cameraObject) {
+        Camera.Parameters parameters = cameraObject.getParameters();
+        Camera.Size previewSize = parameters.getPreviewSize();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(parameters.getPreviewFormat());
+        int bufferCount;
+        synchronized (this) {
+            bufferCount = previewBufferCount;
+        }
+        int previewBufferSize = previewSize.width * previewSize.height * bitsPerPixel / 8;
+        // A new ring each time; buffers of the previous one still being decoded are dropped on release
+        previewBuffers = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        for (int i = 0; i < bufferCount; i++) {
+            byte[] buffer = new byte[previewBufferSize];
+            previewBuffers.add(buffer);
+            cameraObject.addCallbackBuffer(buffer);
+        }
+        Log.d(TAG, "Allocated " + bufferCount + " preview buffers of " + previewBufferSize + " bytes");
+    }
+
+    /**
+     * Every preview frame will be passed to the listener supplied, on the camera thread, until it
+     * is replaced or the preview stops. The listener must hand each frame back with
+     * {@link #releasePreviewBuffer(ByteBuffer)} once it is done with it.
      *
-     * @param handler The handler to send the message to.
-     * @param message The what field of the message to be sent.
+     * @param listener The listener to pass frames to, or {@code null} to stop.
+     */
+    @Override
+    public void setPreviewFrameListener(PreviewFrameListener listener) {
+        cameraHandler.obtainMessage(SET_LISTENER, listener).sendToTarget();
+    }
+
+    private void doSetPreviewFrameListener(PreviewFrameListener listener) {
+        frameListener = listener;
+        if (listener == null) {
+            previewCallback.setListener(null);
+            if (camera2 != null) {
+                camera2.setListener(null);
+            }
+        } else if (usingCamera2 && previewing) {
+            camera2.setListener(listener);
+        } else if (camera != null && previewing) {
+            previewCallback.setListener(listener);
+        }
+    }
+
+    /**
+     * Closes the camera Camera2 failed to stream from and opens it again through Camera1, starting
+     * the preview and passing frames to the listener again if they were. Should Camera1 fail too,
+     * that reaches the {@link CameraErrorListener} like any failure to open.
      */
-    public synchronized void requestPreviewFrame(Handler handler, int message) {
+    private void fallBackToCamera1(boolean startPreview) throws IOException {
+        if (!usingCamera2) {
+            return;
+        }
+        Log.w(TAG, "Falling back to Camera1");
+        final SurfaceHolder holder = previewHolder;
+        PreviewFrameListener listener = frameListener;
+        camera2Failed = true;
+        doClose();
+        if (holder != null) {
+            // Camera1 picks a preview size of its own; undo the one fixed for Camera2
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    holder.setSizeFromLayout();
+                }
+            });
+        }
+        doOpen(holder);
+        if (startPreview) {
+            doStartPreview();
+            if (listener != null) {
+                doSetPreviewFrameListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Returns a frame delivered to a {@link PreviewFrameListener} to the ring of preview buffers,
+     * so the driver can fill it again, or with Camera2 closes the image it came from. May be called
+     * on any thread.
+     *
+     * @param plane The preview frame which is no longer used.
+     */
+    @Override
+    public void releasePreviewBuffer(ByteBuffer plane) {
+        if (plane == null || (camera2 != null && camera2.release(plane))) {
+            return;
+        }
+        cameraHandler.obtainMessage(RELEASE_BUFFER, plane).sendToTarget();
+    }
+
+    private void doReleasePreviewBuffer(ByteBuffer plane) {
         OpenCamera theCamera = camera;
-        if (theCamera != null && previewing) {
-            previewCallback.setHandler(handler, message);
-            theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
+        if (theCamera != null && previewing && plane.hasArray() && previewBuffers.contains(plane.array())) {
+            theCamera.getCamera().addCallbackBuffer(plane.array());
         }
     }
 
+    /**
+     * Sets how many preview buffers the driver cycles through. More buffers let the camera keep
+     * delivering frames while earlier ones are still being decoded. Takes effect the next time the
+     * preview is started, or with Camera2, the next time the driver is opened.
+     *
+     * @param count number of preview buffers, at least 1.
+     */
+    public synchronized void setPreviewBufferCount(int count) {
+        previewBufferCount = Math.max(1, count);
+    }
+
+    /**
+     * Allows third party apps to keep to Camera1, for instance on devices whose Camera2 support is
+     * known to misbehave. Takes effect the next time the driver is opened.
+     *
+     * @param enabled {@code false} to use Camera1 even where Camera2 drives the camera natively.
+     */
+    public synchronized void setCamera2Enabled(boolean enabled) {
+        camera2Enabled = enabled;
+    }
+
     /**
      * Allows third party apps to specify the camera ID, rather than determine
      * it automatically based on available cameras and their orientation.
@@ -245,23 +702,17 @@ public final class CameraManager {
         requestedCameraId = cameraId;
     }
 
-    /**
-     * A factory method to build the appropriate LuminanceSource object based on the format
-     * of the preview buffers, as described by Camera.Parameters.
-     *
-     * @param data   A preview frame.
-     * @param width  The width of the image.
-     * @param height The height of the image.
-     * @return A PlanarYUVLuminanceSource instance.
-     */
-    public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
-        Rect rect = getFramingRectInPreview();
-        if (rect == null) {
-            return null;
-        }
-        // Go ahead and assume it's YUV rather than die.
-        return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-                rect.width(), rect.height(), false);
+    private void reportError(final Exception e) {
+        Log.w(TAG, "Camera failed", e);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CameraErrorListener listener = errorListener;
+                if (listener != null) {
+                    listener.onCameraError(e);
+                }
+            }
+        });
     }
 
     /**
@@ -270,6 +721,7 @@ public final class CameraManager {
      *
      * @return {@link Rect} expressing barcode scan area in terms of the preview size
      */
+    @Override
     public synchronized Rect getFramingRectInPreview() {
         if (framingRectInPreview == null) {
             Rect framingRect = getFramingRect();
@@ -312,7 +764,7 @@ public final class CameraManager {
      */
     public synchronized Rect getFramingRect() {
         if (framingRect == null) {
-            if (camera == null) {
+            if (camera == null && !usingCamera2) {
                 return null;
             }
             Point screenResolution = configManager.getScreenResolution();
@@ -356,4 +808,52 @@ public final class CameraManager {
         return dim;
     }
 
+    /**
+     * Carries out the commands on the camera thread.
+     */
+    private final class CameraHandler extends Handler {
+
+        CameraHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message message) {
+            try {
+                switch (message.what) {
+                    case OPEN:
+                        doOpen((SurfaceHolder) message.obj);
+                        break;
+                    case CLOSE:
+                        doClose();
+                        break;
+                    case START_PREVIEW:
+                        doStartPreview();
+                        break;
+                    case STOP_PREVIEW:
+                        doStopPreview();
+                        break;
+                    case SET_TORCH:
+                        doSetTorch(message.arg1 != 0);
+                        break;
+                    case SET_LISTENER:
+                        doSetPreviewFrameListener((PreviewFrameListener) message.obj);
+                        break;
+                    case RELEASE_BUFFER:
+                        doReleasePreviewBuffer((ByteBuffer) message.obj);
+                        break;
+                    case CAMERA2_FAILED:
+                        fallBackToCamera1(previewing);
+                        break;
+                }
+            } catch (IOException ioe) {
+                reportError(ioe);
+            } catch (RuntimeException re) {
+                // Barcode Scanner has seen crashes in the wild of this variety:
+                // java.?lang.?RuntimeException: Fail to connect to camera service
+                reportError(re);
+            }
+        }
+    }
+
 }
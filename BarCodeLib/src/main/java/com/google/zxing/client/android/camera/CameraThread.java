@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The thread all camera work is done on: opening and configuring the camera, starting and stopping
+ * the preview, focusing and the torch. Camera1 delivers its preview frames and focus callbacks to
+ * the thread which opened the camera, so these never reach the main thread either.
+ * <p>
+ * There is one such thread for the whole process, started when first needed and kept for good, so
+ * that a camera opened for a new screen is queued behind the close of the one before it.
+ */
+final class CameraThread {
+
+    private static HandlerThread thread;
+
+    private CameraThread() {
+    }
+
+    static synchronized Looper getLooper() {
+        if (thread == null) {
+            thread = new HandlerThread(CameraThread.class.getSimpleName(), Process.THREAD_PRIORITY_DISPLAY);
+            thread.start();
+        }
+        return thread.getLooper();
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where the decode pipeline gets its frames from. All it needs is the luminance plane of each
+ * frame, described by
+ * {@link PreviewFrameListener#onPreviewFrame(ByteBuffer, int, int, int, int, int, long)}, and the
+ * area of the frame to decode; it never talks to a camera API itself. {@link CameraManager} is the
+ * source while scanning, through Camera2 or Camera1; tests feed the pipeline recorded or
+ * synthetic frames through other sources, to measure its throughput on a JVM.
+ */
+public interface FrameSource {
+
+    /**
+     * Every frame will be passed to the listener supplied, until it is replaced. The listener must
+     * hand each frame back with {@link #releasePreviewBuffer(ByteBuffer)} once it is done with it.
+     *
+     * @param listener The listener to pass frames to, or {@code null} to stop.
+     */
+    void setPreviewFrameListener(PreviewFrameListener listener);
+
+    /**
+     * Hands a frame delivered to the listener back to the source, to be filled again.
+     *
+     * @param plane The frame which is no longer used; {@code null} is ignored.
+     */
+    void releasePreviewBuffer(ByteBuffer plane);
+
+    /**
+     * @return the area of the frames to decode, in frame coordinates as oriented on screen, or
+     * {@code null} if it is not known yet.
+     */
+    Rect getFramingRectInPreview();
+
+}
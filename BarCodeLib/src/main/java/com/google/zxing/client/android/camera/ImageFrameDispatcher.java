@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Passes the Y plane of each {@link android.graphics.ImageFormat#YUV_420_888} image to a
+ * {@link PreviewFrameListener}, as it is, and closes the image once the listener hands the plane
+ * back. The plane is read in place, in whatever row and pixel stride the driver chose, so nothing
+ * is copied on the way. It only depends on {@link Image} and {@link Image.Plane}, whose
+ * constructors are protected, so it can be driven with fake images as well as camera ones.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+final class ImageFrameDispatcher {
+
+    private final int rotation;
+    private final Map<ByteBuffer, Image> outstanding = new IdentityHashMap<>();
+    private volatile PreviewFrameListener listener;
+
+    /**
+     * @param rotation Clockwise degrees which turn the images the way they are shown on screen; see
+     *                 {@link PreviewFrameListener}.
+     */
+    ImageFrameDispatcher(int rotation) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation >= 360) {
+            throw new IllegalArgumentException("Rotation must be 0, 90, 180 or 270: " + rotation);
+        }
+        this.rotation = rotation;
+    }
+
+    void setListener(PreviewFrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Hands the image's luminance to the listener, or closes it straight away if there is none.
+     */
+    void dispatch(Image image) {
+        PreviewFrameListener theListener = listener;
+        if (theListener == null) {
+            image.close();
+            return;
+        }
+        Image.Plane luminance = image.getPlanes()[0];
+        ByteBuffer plane = luminance.getBuffer();
+        synchronized (this) {
+            outstanding.put(plane, image);
+        }
+        int width = rotation % 180 == 0 ? image.getWidth() : image.getHeight();
+        int height = rotation % 180 == 0 ? image.getHeight() : image.getWidth();
+        theListener.onPreviewFrame(plane, width, height, luminance.getRowStride(), luminance.getPixelStride(),
+                rotation, System.nanoTime());
+    }
+
+    /**
+     * Closes the image a plane handed to the listener belongs to.
+     *
+     * @return {@code false} if the plane is not one of an image dispatched here and still open.
+     */
+    boolean release(ByteBuffer plane) {
+        Image image;
+        synchronized (this) {
+            image = outstanding.remove(plane);
+        }
+        if (image == null) {
+            return false;
+        }
+        image.close();
+        return true;
+    }
+
+    /**
+     * @return number of images handed to the listener and not released yet.
+     */
+    synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+}
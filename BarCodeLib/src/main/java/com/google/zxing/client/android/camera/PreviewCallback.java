@@ -18,49 +18,44 @@ package com.google.zxing.client.android.camera;
 
 import android.graphics.Point;
 import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Message;
-import android.util.Log;
 
-final class PreviewCallback implements Camera.PreviewCallback {
+import java.nio.ByteBuffer;
 
-    private static final String TAG = PreviewCallback.class.getSimpleName();
+final class PreviewCallback implements Camera.PreviewCallback {
 
     private final CameraConfigurationManager configManager;
-    private Handler previewHandler;
-    private int previewMessage;
+    private volatile PreviewFrameListener listener;
 
     PreviewCallback(CameraConfigurationManager configManager) {
         this.configManager = configManager;
     }
 
-    void setHandler(Handler previewHandler, int previewMessage) {
-        this.previewHandler = previewHandler;
-        this.previewMessage = previewMessage;
+    void setListener(PreviewFrameListener listener) {
+        this.listener = listener;
     }
 
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
         Point cameraResolution = configManager.getCameraResolution();
-        Handler thePreviewHandler = previewHandler;
-        if (cameraResolution != null && thePreviewHandler != null) {
+        PreviewFrameListener theListener = listener;
+        if (cameraResolution != null && theListener != null && data != null) {
+            long timestamp = System.nanoTime();
+            ByteBuffer plane = ByteBuffer.wrap(data);
             // add by stefan
             Point screenResolution = configManager.getScreenResolution();
-            Message message;
             if (screenResolution.x < screenResolution.y) {
-                // portrait
-                message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.y,
-                        cameraResolution.x, data);
+                // portrait: the display is turned, the frame data is still in landscape orientation
+                theListener.onPreviewFrame(plane, cameraResolution.y, cameraResolution.x, cameraResolution.x, 1, 90,
+                        timestamp);
             } else {
                 // landscape
-                message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
-                        cameraResolution.y, data);
+                theListener.onPreviewFrame(plane, cameraResolution.x, cameraResolution.y, cameraResolution.x, 1, 0,
+                        timestamp);
             }
             // end add
-            message.sendToTarget();
-            previewHandler = null;
-        } else {
-            Log.d(TAG, "Got preview callback, but no handler or resolution available");
+        } else if (data != null) {
+            // Nobody wants this frame, so give the buffer straight back to the driver
+            camera.addCallbackBuffer(data);
         }
     }
 
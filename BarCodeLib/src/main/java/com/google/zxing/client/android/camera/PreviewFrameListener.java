@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives every frame while registered with
+ * {@link FrameSource#setPreviewFrameListener(PreviewFrameListener)}.
+ */
+public interface PreviewFrameListener {
+
+    /**
+     * Called on the source's thread for each frame. The listener takes ownership of {@code plane}
+     * and must hand it back with {@link FrameSource#releasePreviewBuffer(ByteBuffer)}.
+     * <p>
+     * {@code plane} holds the luminance plane from index 0, as the sensor delivered it:
+     * {@code rotation} degrees clockwise turn it the way it is shown on screen. It may wrap a
+     * {@code byte[]}, as Camera1 frames do, or be a direct buffer, such as the Y plane of a Camera2
+     * {@link android.media.Image}; it is only read with absolute indices, so its position and limit
+     * don't matter. Anything after the plane, such as the chroma of an NV21 frame, is ignored.
+     *
+     * @param plane       The frame, starting with its luminance plane.
+     * @param width       The width of the frame, as oriented on screen.
+     * @param height      The height of the frame, as oriented on screen.
+     * @param rowStride   The distance in bytes between the rows of the plane, as stored.
+     * @param pixelStride The distance in bytes between the pixels of a row, as stored.
+     * @param rotation    0, 90, 180 or 270.
+     * @param timestamp   The {@link System#nanoTime()} at which the frame arrived.
+     */
+    void onPreviewFrame(ByteBuffer plane, int width, int height, int rowStride, int pixelStride, int rotation,
+                        long timestamp);
+
+}
@@ -96,4 +96,22 @@ public final class OpenCameraInterface {
                 selectedCameraInfo.orientation);
     }
 
+    /**
+     * Opens a camera {@link #open(int)} found before, whose metadata is known, without looking
+     * through the cameras again.
+     *
+     * @param index       The index of the camera, as returned by {@link OpenCamera#getIndex()}.
+     * @param facing      The direction it faces.
+     * @param orientation Its orientation.
+     * @return handle to {@link OpenCamera} that was opened
+     */
+    public static OpenCamera open(int index, CameraFacing facing, int orientation) {
+        Log.i(TAG, "Opening camera #" + index);
+        Camera camera = Camera.open(index);
+        if (camera == null) {
+            return null;
+        }
+        return new OpenCamera(index, camera, facing, orientation);
+    }
+
 }
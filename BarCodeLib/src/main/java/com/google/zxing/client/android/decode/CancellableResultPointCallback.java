@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Forwards possible result points, but aborts the reader by throwing
+ * {@link CancellationException} once the frame being decoded has been cancelled or has run out of
+ * time, see {@link FrameScheduler#shouldStop(PreviewFrame)}, or {@link #cancel()} has been called.
+ * Readers report points as they go, so this is the one place a decode can be stopped part way.
+ * <p>
+ * Points are passed on relative to the framing rectangle, also when only a region of it is being
+ * decoded or it is decoded at a lower resolution, and are fed to the {@link RegionTracker}, if
+ * any. They are counted, so that a decode which failed can tell whether it saw anything at all.
+ */
+final class CancellableResultPointCallback implements ResultPointCallback {
+
+    private final FrameScheduler frameScheduler;
+    private final ResultPointCallback delegate;
+    private final RegionTracker regionTracker;
+    private volatile PreviewFrame frame;
+    private volatile boolean cancelled;
+    private volatile int pointCount;
+
+    CancellableResultPointCallback(FrameScheduler frameScheduler,
+                                   ResultPointCallback delegate,
+                                   RegionTracker regionTracker) {
+        this.frameScheduler = frameScheduler;
+        this.delegate = delegate;
+        this.regionTracker = regionTracker;
+    }
+
+    /**
+     * Sets the frame about to be decoded, and clears any earlier {@link #cancel()}.
+     */
+    void setFrame(PreviewFrame frame) {
+        this.frame = frame;
+        cancelled = false;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return the number of points reported so far; only ever grows.
+     */
+    int getPointCount() {
+        return pointCount;
+    }
+
+    boolean isCancelled() {
+        PreviewFrame theFrame = frame;
+        return cancelled || (theFrame != null && frameScheduler.shouldStop(theFrame));
+    }
+
+    @Override
+    public void foundPossibleResultPoint(ResultPoint point) {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+        // only the thread decoding with this callback reports to it
+        pointCount++;
+        PreviewFrame theFrame = frame;
+        if (theFrame != null &&
+                (theFrame.regionLeft != 0 || theFrame.regionTop != 0 || theFrame.regionScale != 1)) {
+            point = new ResultPoint(point.getX() * theFrame.regionScale + theFrame.regionLeft,
+                    point.getY() * theFrame.regionScale + theFrame.regionTop);
+        }
+        if (regionTracker != null) {
+            regionTracker.addPoint(point.getX(), point.getY());
+        }
+        if (delegate != null) {
+            delegate.foundPossibleResultPoint(point);
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import com.google.zxing.BinaryBitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-worker storage for the decode stage: the cropped luminance, the block thresholds and the
+ * black matrix are allocated once and refilled for every frame. They are only reallocated if the
+ * framing rectangle changes size.
+ * <p>
+ * The luminance of Camera2 images is copied out as well, rather than read from the plane in
+ * place: the binarizer reads the crop as one array anyway, and once it is copied, in a single pass,
+ * the image goes back to the camera before it is decoded.
+ * <p>
+ * {@link BinaryBitmap} caches its matrix in a private field, so a new one, which is just a
+ * wrapper around the binarizer, is still created per frame.
+ */
+final class DecodeContext {
+
+    private ReusableLuminanceSource source;
+    private ReusableHybridBinarizer binarizer;
+
+    /**
+     * Copies the luminance inside {@code rect} out of a preview frame, turning it the way it is
+     * shown on screen. The frame's plane is not referenced afterwards.
+     *
+     * @param frame The preview frame.
+     * @param rect  The area to decode, in preview coordinates as oriented on screen.
+     * @param scale 1 for full resolution, or 2 for half: each pixel is then the average of a 2x2
+     *              block, read straight from the frame.
+     * @return a bitmap over the cropped luminance, valid until the next call.
+     */
+    BinaryBitmap prepare(PreviewFrame frame, Rect rect, int scale) {
+        int cropWidth = rect.width() / scale;
+        int cropHeight = rect.height() / scale;
+        if (source == null || source.getWidth() != cropWidth || source.getHeight() != cropHeight) {
+            source = new ReusableLuminanceSource(cropWidth, cropHeight);
+            binarizer = new ReusableHybridBinarizer(source);
+        }
+        byte[] luminances = source.getMatrix();
+        int rowStride = frame.rowStride;
+        boolean packed = frame.isPacked();
+        if (packed && frame.rotation == 90) {
+            // the usual portrait frame: rotate only the luminance inside the framing rect
+            byte[] data = frame.plane.array();
+            if (scale == 1) {
+                LuminanceRotator.rotateClockwise(data, frame.width, rowStride, rect.left, rect.top,
+                        cropWidth, cropHeight, luminances);
+            } else {
+                LuminanceRotator.rotateClockwiseHalf(data, frame.width, rowStride, rect.left, rect.top,
+                        cropWidth, cropHeight, luminances);
+            }
+        } else if (packed && frame.rotation == 0) {
+            byte[] data = frame.plane.array();
+            if (scale == 1) {
+                for (int y = 0; y < cropHeight; y++) {
+                    System.arraycopy(data, (rect.top + y) * rowStride + rect.left, luminances, y * cropWidth,
+                            cropWidth);
+                }
+            } else {
+                for (int y = 0; y < cropHeight; y++) {
+                    int srcOffset = (rect.top + 2 * y) * rowStride + rect.left;
+                    int dstOffset = y * cropWidth;
+                    for (int x = 0; x < cropWidth; x++) {
+                        luminances[dstOffset + x] = average(data, srcOffset + 2 * x, rowStride);
+                    }
+                }
+            }
+        } else if (frame.rotation == 0 && scale == 1) {
+            // an upright Camera2 image: read its rows straight out of the direct buffer
+            ByteBuffer view = frame.plane.duplicate();
+            view.clear();
+            int pixelStride = frame.pixelStride;
+            for (int y = 0; y < cropHeight; y++) {
+                copyRow(view, (rect.top + y) * rowStride + rect.left * pixelStride, pixelStride, luminances,
+                        y * cropWidth, cropWidth);
+            }
+        } else {
+            walk(frame, rect, scale, luminances, cropWidth, cropHeight);
+        }
+        binarizer.reset();
+        return new BinaryBitmap(binarizer);
+    }
+
+    /**
+     * @return a bitmap over the luminance last prepared, sharing the black matrix if it has been
+     * computed already.
+     */
+    BinaryBitmap getBitmap() {
+        return new BinaryBitmap(binarizer);
+    }
+
+    /**
+     * Inverts the luminance last prepared in place, for barcodes printed light on dark; calling it
+     * again restores it.
+     *
+     * @return a bitmap over the inverted luminance.
+     */
+    BinaryBitmap invert() {
+        byte[] luminances = source.getMatrix();
+        for (int i = 0; i < luminances.length; i++) {
+            luminances[i] = (byte) ~luminances[i];
+        }
+        binarizer.reset();
+        return new BinaryBitmap(binarizer);
+    }
+
+    /**
+     * Copies another context's luminance turned a quarter turn counterclockwise, as
+     * {@link com.google.zxing.LuminanceSource#rotateCounterClockwise()} would, so that 1D barcodes
+     * held upright can be read along rows.
+     *
+     * @return a bitmap over the rotated luminance, valid until the next call.
+     */
+    BinaryBitmap prepareRotated(ReusableLuminanceSource other) {
+        int width = other.getWidth();
+        int height = other.getHeight();
+        if (source == null || source.getWidth() != height || source.getHeight() != width) {
+            source = new ReusableLuminanceSource(height, width);
+            binarizer = new ReusableHybridBinarizer(source);
+        }
+        byte[] input = other.getMatrix();
+        byte[] luminances = source.getMatrix();
+        for (int y = 0; y < width; y++) {
+            int inputColumn = width - 1 - y;
+            int outputOffset = y * height;
+            for (int x = 0; x < height; x++) {
+                luminances[outputOffset + x] = input[x * width + inputColumn];
+            }
+        }
+        binarizer.reset();
+        return new BinaryBitmap(binarizer);
+    }
+
+    /**
+     * @return the average of the 2x2 block at {@code offset}, with rows {@code stride} apart.
+     */
+    static byte average(byte[] data, int offset, int stride) {
+        return (byte) (((data[offset] & 0xff) + (data[offset + 1] & 0xff) +
+                (data[offset + stride] & 0xff) + (data[offset + stride + 1] & 0xff) + 2) >> 2);
+    }
+
+    /**
+     * Copies {@code length} pixels of a row out of a plane, in bulk if they are adjacent.
+     *
+     * @param view        A view of the plane, whose position is moved.
+     * @param offset      The index of the first pixel.
+     * @param pixelStride The distance in bytes between pixels.
+     */
+    private static void copyRow(ByteBuffer view, int offset, int pixelStride, byte[] dst, int dstOffset, int length) {
+        if (pixelStride == 1) {
+            view.position(offset);
+            view.get(dst, dstOffset, length);
+        } else {
+            for (int x = 0; x < length; x++) {
+                dst[dstOffset + x] = view.get(offset + x * pixelStride);
+            }
+        }
+    }
+
+    /**
+     * Copies the crop pixel by pixel, for planes which are turned other than the usual way, or are
+     * not a packed {@code byte[]}. Whichever of rows or columns as shown lies along the stored rows
+     * is walked in the inner loop, so that the plane is read in order.
+     */
+    private static void walk(PreviewFrame frame, Rect rect, int scale, byte[] luminances, int cropWidth,
+                             int cropHeight) {
+        ByteBuffer plane = frame.plane;
+        int base = frame.offset(rect.left, rect.top);
+        int xStride = frame.xStride();
+        int yStride = frame.yStride();
+        if (Math.abs(xStride) <= Math.abs(yStride)) {
+            for (int y = 0; y < cropHeight; y++) {
+                int srcOffset = base + scale * y * yStride;
+                int dstOffset = y * cropWidth;
+                for (int x = 0; x < cropWidth; x++) {
+                    int offset = srcOffset + scale * x * xStride;
+                    luminances[dstOffset + x] = scale == 1 ? plane.get(offset) :
+                            average(plane, offset, xStride, yStride);
+                }
+            }
+        } else {
+            for (int x = 0; x < cropWidth; x++) {
+                int srcOffset = base + scale * x * xStride;
+                for (int y = 0; y < cropHeight; y++) {
+                    int offset = srcOffset + scale * y * yStride;
+                    luminances[y * cropWidth + x] = scale == 1 ? plane.get(offset) :
+                            average(plane, offset, xStride, yStride);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the average of the 2x2 block at {@code offset}, walking it with the given strides,
+     * which may be negative.
+     */
+    private static byte average(ByteBuffer plane, int offset, int xStride, int yStride) {
+        return (byte) (((plane.get(offset) & 0xff) + (plane.get(offset + xStride) & 0xff) +
+                (plane.get(offset + yStride) & 0xff) + (plane.get(offset + xStride + yStride) & 0xff) + 2) >> 2);
+    }
+
+    /**
+     * @return the source filled by the last {@link #prepare(PreviewFrame, Rect, int)}.
+     */
+    ReusableLuminanceSource getLuminanceSource() {
+        return source;
+    }
+
+}
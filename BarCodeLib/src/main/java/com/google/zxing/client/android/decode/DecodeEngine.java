@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.camera.FrameSource;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of {@link DecodeThread}s fed by one {@link FrameScheduler}. Each worker owns its own
+ * reader and hints, so frames can be decoded on several cores at once. With
+ * {@link DecodeOptions#isParallelFormats()} or {@link DecodeOptions#isMultiple()} the workers also
+ * share a pool of threads to decode groups of formats, or tiles, of the same frame in parallel.
+ */
+public final class DecodeEngine {
+
+    private static final String TAG = DecodeEngine.class.getSimpleName();
+
+    private static final int PREWARM_CODE_SIZE = 120;
+    private static final AtomicBoolean PREWARMED = new AtomicBoolean();
+
+    private final DecodeOptions options;
+    private final FrameSource frameSource;
+    private final Handler resultHandler;
+    private final ScanMetricsCollector metrics;
+    private final FrameScheduler frameScheduler;
+    private final ExecutorService sharedExecutor;
+    private final DuplicateFilter duplicateFilter;
+    private final ResultConfirmer resultConfirmer;
+    private final RegionTracker regionTracker;
+    private final ScaleSelector scaleSelector;
+    private final FrameQualityGate qualityGate;
+    private final FormatStatistics formatStatistics;
+    private final DecodeThread[] decodeThreads;
+    private final AtomicInteger runningWorkers;
+
+    /**
+     * @param context       Where the format statistics are kept.
+     * @param frameSource   Where frames come from; the camera, or a stand-in for tests.
+     * @param resultHandler Receives {@code R.id.decode_succeeded} and {@code R.id.decode_thumbnail}
+     *                      messages with the results.
+     */
+    public DecodeEngine(Context context,
+                        FrameSource frameSource,
+                        DecodeOptions options,
+                        Collection<BarcodeFormat> decodeFormats,
+                        Map<DecodeHintType, ?> baseHints,
+                        String characterSet,
+                        ResultPointCallback resultPointCallback,
+                        ScanMetricsCollector metrics,
+                        Handler resultHandler) {
+        this.options = options;
+        this.metrics = metrics;
+        this.frameSource = frameSource;
+        this.resultHandler = resultHandler;
+        frameScheduler = new FrameScheduler(frameSource, R.id.decode, metrics, options.isSkipUnchangedFrames());
+        // Multiple mode wants everything in the framing rect, not just around the last barcode
+        regionTracker = options.isMultiple() ? null : new RegionTracker(metrics);
+        scaleSelector = options.isMultiple() ? null : new ScaleSelector();
+        qualityGate = options.isQualityGate() ? new FrameQualityGate() : null;
+        formatStatistics = options.isAdaptiveFormatOrder() ? new FormatStatistics(context) : null;
+        duplicateFilter = options.isContinuous() ? new DuplicateFilter(options.getDuplicateWindowMs()) : null;
+        resultConfirmer = options.getConfirmReads() > 1 ? new ResultConfirmer(options.getConfirmReads()) : null;
+        sharedExecutor = options.isParallelFormats() || options.isMultiple() ?
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) : null;
+        decodeThreads = new DecodeThread[options.getWorkerCount()];
+        runningWorkers = new AtomicInteger(decodeThreads.length);
+        for (int i = 0; i < decodeThreads.length; i++) {
+            decodeThreads[i] = new DecodeThread(this, decodeFormats, baseHints, characterSet, resultPointCallback);
+            decodeThreads[i].start();
+        }
+        for (DecodeThread decodeThread : decodeThreads) {
+            frameScheduler.addWorker(decodeThread.getHandler());
+        }
+    }
+
+    /**
+     * Gets the decoders ready for a scanner started later, on a thread of its own: loads the
+     * format statistics, and decodes a QR code drawn for the purpose with all readers, so that
+     * their classes are loaded and their tables built before the first frame. Only does anything
+     * the first time it is called.
+     *
+     * @param context Where the format statistics are kept.
+     */
+    public static void prewarm(final Context context) {
+        if (!PREWARMED.compareAndSet(false, true)) {
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = System.nanoTime();
+                new FormatStatistics(context).load();
+                Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+                Collection<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+                formats.addAll(DecodeFormatManager.PRODUCT_FORMATS);
+                formats.addAll(DecodeFormatManager.INDUSTRIAL_FORMATS);
+                formats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
+                formats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
+                formats.addAll(DecodeFormatManager.AZTEC_FORMATS);
+                formats.addAll(DecodeFormatManager.PDF417_FORMATS);
+                hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+                try {
+                    BitMatrix code = new QRCodeWriter().encode(TAG, BarcodeFormat.QR_CODE, PREWARM_CODE_SIZE,
+                            PREWARM_CODE_SIZE);
+                    byte[] pixels = new byte[PREWARM_CODE_SIZE * PREWARM_CODE_SIZE];
+                    for (int y = 0; y < PREWARM_CODE_SIZE; y++) {
+                        for (int x = 0; x < PREWARM_CODE_SIZE; x++) {
+                            pixels[y * PREWARM_CODE_SIZE + x] = (byte) (code.get(x, y) ? 0 : 255);
+                        }
+                    }
+                    new MultiFormatReader().decode(new BinaryBitmap(new HybridBinarizer(
+                            new PlanarYUVLuminanceSource(pixels, PREWARM_CODE_SIZE, PREWARM_CODE_SIZE, 0, 0,
+                                    PREWARM_CODE_SIZE, PREWARM_CODE_SIZE, false))), hints);
+                } catch (WriterException we) {
+                    Log.w(TAG, "Could not draw the prewarm code", we);
+                } catch (ReaderException re) {
+                    Log.w(TAG, "Prewarm code not read", re);
+                }
+                Log.i(TAG, "Decoders prewarmed in " +
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+        }, "DecodePrewarm").start();
+    }
+
+    DecodeOptions getOptions() {
+        return options;
+    }
+
+    ScanMetricsCollector getMetrics() {
+        return metrics;
+    }
+
+    FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    Handler getResultHandler() {
+        return resultHandler;
+    }
+
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    /**
+     * @return the filter shared by all workers in continuous mode, or {@code null} if decoding
+     * stops at the first result.
+     */
+    DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+
+    /**
+     * @return the confirmer shared by all workers, or {@code null} if every barcode is delivered on
+     * its first read.
+     */
+    ResultConfirmer getResultConfirmer() {
+        return resultConfirmer;
+    }
+
+    /**
+     * @return the tracker shared by all workers, or {@code null} if frames are always decoded
+     * over the whole framing rectangle.
+     */
+    RegionTracker getRegionTracker() {
+        return regionTracker;
+    }
+
+    /**
+     * @return the selector shared by all workers, or {@code null} if frames are always decoded at
+     * full resolution.
+     */
+    ScaleSelector getScaleSelector() {
+        return scaleSelector;
+    }
+
+    /**
+     * @return the gate shared by all workers, or {@code null} if every frame is decoded.
+     */
+    FrameQualityGate getQualityGate() {
+        return qualityGate;
+    }
+
+    /**
+     * @return the statistics shared by all workers, or {@code null} if readers are always tried
+     * in the usual order.
+     */
+    FormatStatistics getFormatStatistics() {
+        return formatStatistics;
+    }
+
+    /**
+     * @return the threads decoding groups of formats or tiles of the same frame in parallel, or
+     * {@code null} if each frame is decoded by one thread.
+     */
+    Executor getSharedExecutor() {
+        return sharedExecutor;
+    }
+
+    /**
+     * Starts decoding preview frames, until a result is found or {@link #quit()}.
+     * In continuous mode results don't stop decoding.
+     */
+    public void start() {
+        frameScheduler.start();
+    }
+
+    /**
+     * Stops decoding without waiting for the workers: the frames they are decoding are cancelled,
+     * so no result of theirs is delivered, and each worker exits once done with its frame. The
+     * last one to exit shuts down the shared threads. Cheap enough for the main thread.
+     */
+    public void quit() {
+        frameScheduler.stop();
+        for (DecodeThread decodeThread : decodeThreads) {
+            Message.obtain(decodeThread.getHandler(), R.id.quit).sendToTarget();
+        }
+    }
+
+    /**
+     * Called by each worker as it starts, before it takes any frame.
+     */
+    void onWorkerStarted() {
+        if (formatStatistics != null) {
+            formatStatistics.load();
+        }
+    }
+
+    /**
+     * Called by each worker as it exits. The last one saves the format statistics, as no more
+     * hits can come in.
+     */
+    void onWorkerExited() {
+        if (runningWorkers.decrementAndGet() == 0) {
+            if (sharedExecutor != null) {
+                sharedExecutor.shutdownNow();
+            }
+            if (formatStatistics != null) {
+                formatStatistics.save();
+            }
+        }
+    }
+
+    /**
+     * Stops decoding like {@link #quit()}, then waits for the workers to exit.
+     *
+     * @param timeoutMs how long to wait, in total, for the workers.
+     */
+    public void quitSynchronously(long timeoutMs) {
+        quit();
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        try {
+            for (DecodeThread decodeThread : decodeThreads) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                decodeThread.join(remaining);
+            }
+        } catch (InterruptedException e) {
+            // continue
+        }
+    }
+
+}
@@ -22,7 +22,9 @@ import android.net.Uri;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.client.android.util.Intents;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -30,7 +32,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
-final class DecodeFormatManager {
+public final class DecodeFormatManager {
 
     private static final Pattern COMMA_PATTERN = Pattern.compile(",");
 
@@ -73,7 +75,60 @@ final class DecodeFormatManager {
     private DecodeFormatManager() {
     }
 
-    static Set<BarcodeFormat> parseDecodeFormats(Intent intent) {
+    /**
+     * Splits formats into groups which can be decoded independently: 1D formats, which work on
+     * single rows, PDF417, which is slow, and the other 2D formats.
+     *
+     * @return the non-empty groups, 1D first.
+     */
+    static List<Set<BarcodeFormat>> partitionDecodeFormats(Collection<BarcodeFormat> formats) {
+        Set<BarcodeFormat> oneD = EnumSet.noneOf(BarcodeFormat.class);
+        Set<BarcodeFormat> twoD = EnumSet.noneOf(BarcodeFormat.class);
+        Set<BarcodeFormat> pdf417 = EnumSet.noneOf(BarcodeFormat.class);
+        for (BarcodeFormat format : formats) {
+            if (ONE_D_FORMATS.contains(format)) {
+                oneD.add(format);
+            } else if (PDF417_FORMATS.contains(format)) {
+                pdf417.add(format);
+            } else {
+                twoD.add(format);
+            }
+        }
+        List<Set<BarcodeFormat>> groups = new ArrayList<>(3);
+        for (Set<BarcodeFormat> group : Arrays.asList(oneD, twoD, pdf417)) {
+            if (!group.isEmpty()) {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    static boolean isOneDFormats(Collection<BarcodeFormat> formats) {
+        return ONE_D_FORMATS.containsAll(formats);
+    }
+
+    static boolean isOneDFormat(BarcodeFormat format) {
+        return ONE_D_FORMATS.contains(format);
+    }
+
+    static boolean isQrCodeOnly(Collection<BarcodeFormat> formats) {
+        return !formats.isEmpty() && QR_CODE_FORMATS.containsAll(formats);
+    }
+
+    static boolean containsOneDFormat(Collection<BarcodeFormat> formats) {
+        for (BarcodeFormat format : formats) {
+            if (ONE_D_FORMATS.contains(format)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the formats an intent asks for with {@link Intents.Scan#FORMATS} or
+     * {@link Intents.Scan#MODE}, or {@code null} for any format.
+     */
+    public static Set<BarcodeFormat> parseDecodeFormats(Intent intent) {
         Iterable<String> scanFormats = null;
         CharSequence scanFormatsString = intent.getStringExtra(Intents.Scan.FORMATS);
         if (scanFormatsString != null) {
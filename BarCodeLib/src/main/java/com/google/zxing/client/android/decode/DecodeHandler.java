@@ -17,16 +17,18 @@
 package com.google.zxing.client.android.decode;
 
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 
+import com.google.zxing.BarcodeFormat;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
+import com.google.zxing.NotFoundException;
 import com.google.zxing.Result;
-import com.google.zxing.client.android.CaptureActivity;
+import com.google.zxing.ResultPointCallback;
 import com.google.zxing.client.android.R;
-import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.client.android.camera.FrameSource;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
 
 import android.os.Bundle;
 import android.os.Handler;
@@ -34,22 +36,114 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 final class DecodeHandler extends Handler {
 
     private static final String TAG = DecodeHandler.class.getSimpleName();
 
-    private final CaptureActivity activity;
-    private final MultiFormatReader multiFormatReader;
+    /**
+     * While 1D barcodes are read from scanlines, every this many frames the whole framing
+     * rectangle is decoded instead, for barcodes the scanlines miss.
+     */
+    private static final int FULL_DECODE_INTERVAL = 4;
+
+    private final FrameSource frameSource;
+    private final Handler resultHandler;
+    private final ReaderChain readerChain;
+    private final FrameScheduler frameScheduler;
+    private final ScanMetricsCollector metrics;
+    private final PreviewFrame frame = new PreviewFrame();
+    private final CancellableResultPointCallback cancellableCallback;
+    private final FormatGroupDecoder formatGroupDecoder;
+    private final MultiBarcodeDecoder multiBarcodeDecoder;
+    private final ScanlineDecoder scanlineDecoder;
+    private final QrCodeDecoder qrCodeDecoder;
+    private final VariantScheduler variantScheduler;
+    private final ReaderChain harderChain;
+    private final QrCodeDecoder harderQrCodeDecoder;
+    private final DuplicateFilter duplicateFilter;
+    private final ResultConfirmer resultConfirmer;
+    private final RegionTracker regionTracker;
+    private final ScaleSelector scaleSelector;
+    private final FrameQualityGate qualityGate;
+    private final FormatStatistics formatStatistics;
+    private final FrameQualityGate.Sample quality = new FrameQualityGate.Sample();
+    private final DecodeContext decodeContext = new DecodeContext();
+    private final DecodeContext regionContext = new DecodeContext();
+    private final DecodeContext coarseContext = new DecodeContext();
+    private final DecodeContext rotatedContext = new DecodeContext();
+    private DecodeContext lastContext;
+    private final Rect lastCrop = new Rect();
+    private final boolean resultThumbnail;
+    private final long frameBudgetNanos;
+    private int frameCount;
     private boolean running = true;
 
-    DecodeHandler(CaptureActivity activity, Map<DecodeHintType, Object> hints) {
-        multiFormatReader = new MultiFormatReader();
-        multiFormatReader.setHints(hints);
-        this.activity = activity;
+    @SuppressWarnings("unchecked")
+    DecodeHandler(DecodeEngine decodeEngine, Map<DecodeHintType, Object> hints) {
+        frameSource = decodeEngine.getFrameSource();
+        resultHandler = decodeEngine.getResultHandler();
+        frameScheduler = decodeEngine.getFrameScheduler();
+        metrics = decodeEngine.getMetrics();
+        resultThumbnail = decodeEngine.getOptions().isResultThumbnail();
+        duplicateFilter = decodeEngine.getDuplicateFilter();
+        resultConfirmer = decodeEngine.getResultConfirmer();
+        regionTracker = decodeEngine.getRegionTracker();
+        scaleSelector = decodeEngine.getScaleSelector();
+        qualityGate = decodeEngine.getQualityGate();
+        formatStatistics = decodeEngine.getFormatStatistics();
+        Map<DecodeHintType, Object> readerHints = new EnumMap<>(hints);
+        cancellableCallback = new CancellableResultPointCallback(frameScheduler,
+                (ResultPointCallback) hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK), regionTracker);
+        readerHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, cancellableCallback);
+        Executor sharedExecutor = decodeEngine.getSharedExecutor();
+        DecodeOptions options = decodeEngine.getOptions();
+        frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(options.getFrameBudgetMs());
+        multiBarcodeDecoder = options.isMultiple() ?
+                new MultiBarcodeDecoder(sharedExecutor, frameScheduler, hints, metrics) : null;
+        Collection<BarcodeFormat> formats = (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        boolean qrCode = formats != null && DecodeFormatManager.isQrCodeOnly(formats) && multiBarcodeDecoder == null;
+        qrCodeDecoder = qrCode ? new QrCodeDecoder(readerHints, cancellableCallback, metrics) : null;
+        readerChain = qrCode ? null : new ReaderChain(readerHints, cancellableCallback, metrics, formatStatistics);
+        formatGroupDecoder = options.isParallelFormats() && multiBarcodeDecoder == null && !qrCode ?
+                new FormatGroupDecoder(sharedExecutor, frameScheduler, hints, regionTracker, metrics,
+                        formatStatistics) : null;
+        if (options.isDecodeVariants() && multiBarcodeDecoder == null) {
+            boolean tryHarder = !hints.containsKey(DecodeHintType.TRY_HARDER);
+            Map<DecodeHintType, Object> harderHints = new EnumMap<>(readerHints);
+            harderHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+            harderChain = tryHarder && !qrCode ? new ReaderChain(harderHints, cancellableCallback, metrics, null) : null;
+            harderQrCodeDecoder = tryHarder && qrCode ? new QrCodeDecoder(harderHints, cancellableCallback, metrics) : null;
+            variantScheduler = new VariantScheduler(readerChain != null && readerChain.hasOneDReader(), tryHarder);
+        } else {
+            harderChain = null;
+            harderQrCodeDecoder = null;
+            variantScheduler = null;
+        }
+        boolean oneD = formats != null && !formats.isEmpty() && DecodeFormatManager.isOneDFormats(formats);
+        scanlineDecoder = oneD && options.getScanlines() > 0 && multiBarcodeDecoder == null ?
+                new ScanlineDecoder(readerHints, cancellableCallback, options.getScanlines(), formatStatistics) : null;
+    }
+
+    /**
+     * @return whether 1D barcodes are read from a few scanlines on most frames, as they are when
+     * only 1D formats are asked for.
+     */
+    boolean isScanlineDecoding() {
+        return scanlineDecoder != null;
+    }
+
+    /**
+     * @return whether QR codes are decoded on their own, tracked from frame to frame, as they are
+     * when only QR codes are asked for.
+     */
+    boolean isQrCodeTracking() {
+        return qrCodeDecoder != null;
     }
 
     @Override
@@ -58,7 +152,13 @@ final class DecodeHandler extends Handler {
             return;
         }
         if (R.id.decode == message.what) {
-            decode((byte[]) message.obj, message.arg1, message.arg2);
+            if (frameScheduler.takeFrame(this, frame)) {
+                long start = System.nanoTime();
+                decode(frame);
+                long decodeNanos = System.nanoTime() - start;
+                metrics.record(ScanMetrics.Stage.DECODE, decodeNanos);
+                frameScheduler.finishFrame(this, frame, decodeNanos);
+            }
         } else if (R.id.quit == message.what) {
             running = false;
             Looper looper = Looper.myLooper();
@@ -69,67 +169,327 @@ final class DecodeHandler extends Handler {
     }
 
     /**
-     * Decode the data within the viewfinder rectangle, and time how long it took. For efficiency,
-     * reuse the same reader objects from one decode to the next.
+     * Decode the data within the viewfinder rectangle, or within the region of it where a barcode
+     * was seen last, and time how long it took. For efficiency, reuse the same reader objects from
+     * one decode to the next.
+     * <p>
+     * The whole viewfinder rectangle may be decoded at half resolution first. Only if that saw
+     * possible result points, such as finder patterns, without decoding them is the same frame
+     * decoded again at full resolution. 1D only scans mostly read a few lines instead, and QR code
+     * only scans go back to the crop where they last found a QR code. A frame which yields nothing
+     * may be decoded once more, inverted, rotated or trying harder, see {@link VariantScheduler}.
+     * Frames the quality gate turns away are not decoded at all, and a frame which takes longer than
+     * its budget is given up on as soon as a newer one is waiting. If asked to, 1D barcodes are
+     * only delivered once they have been read from more than one frame, see {@link ResultConfirmer}.
      *
-     * @param data   The YUV preview frame.
-     * @param width  The width of the preview frame.
-     * @param height The height of the preview frame.
+     * @param frame The YUV preview frame.
      */
-    private void decode(byte[] data, int width, int height) {
+    private void decode(PreviewFrame frame) {
         long start = System.nanoTime();
-        // add by stefan
-        if (width < height) {
-            // portrait
-            byte[] rotatedData = new byte[data.length];
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++)
-                    rotatedData[y * width + width - x - 1] = data[y + x * height];
+        frame.deadline = frameBudgetNanos == 0L ? 0L : start + frameBudgetNanos;
+        frame.abandoned = false;
+        Result[] rawResults = null;
+        Rect rect = frameSource.getFramingRectInPreview();
+        if (rect != null && qualityGate != null && !frameScheduler.isCancelled(frame)) {
+            FrameQualityGate.measure(frame, rect, quality);
+            boolean accepted = qualityGate.accept(quality);
+            metrics.record(ScanMetrics.Stage.QUALITY_CHECK, System.nanoTime() - start);
+            if (!accepted) {
+                metrics.recordRejected();
+                return;
+            }
+        }
+        if (rect != null && !frameScheduler.isCancelled(frame)) {
+            frame.number = ++frameCount;
+            boolean scanlines = scanlineDecoder != null && frame.number % FULL_DECODE_INTERVAL != 0;
+            Rect tracked = qrCodeDecoder == null ? null : qrCodeDecoder.getTrackedCrop(rect);
+            Rect region = tracked != null ? tracked :
+                    scanlines || regionTracker == null ? null : regionTracker.predictRegion(rect);
+            Result rawResult;
+            if (multiBarcodeDecoder != null) {
+                BinaryBitmap bitmap = prepare(frame, rect, rect, decodeContext, 1);
+                frameScheduler.releaseFrameData(frame);
+                binarize(bitmap);
+                rawResults = multiBarcodeDecoder.decode(bitmap, frame);
+                rawResult = null;
+            } else if (scanlines) {
+                frame.regionLeft = 0;
+                frame.regionTop = 0;
+                frame.regionScale = 1;
+                rawResult = scanlineDecoder.decode(frame, rect);
+                if (rawResult != null && resultThumbnail) {
+                    // the thumbnail is rendered from the cropped luminance, which the lines did without
+                    prepare(frame, rect, rect, decodeContext, 1);
+                }
+                frameScheduler.releaseFrameData(frame);
+            } else if (region == null && scaleSelector.coarseFirst(rect)) {
+                int points = getPointCount();
+                BinaryBitmap bitmap = prepare(frame, rect, rect, coarseContext, 2);
+                rawResult = decodeSingle(bitmap, frame, rect);
+                if (rawResult != null) {
+                    scaleSelector.coarseFound();
+                } else if (getPointCount() != points && !frameScheduler.shouldStop(frame)) {
+                    // Something was seen, but with too few pixels per module to decode it. No group
+                    // is still running, as none found anything.
+                    bitmap = prepare(frame, rect, rect, decodeContext, 1);
+                    frameScheduler.releaseFrameData(frame);
+                    rawResult = decodeSingle(bitmap, frame, rect);
+                    if (rawResult != null) {
+                        scaleSelector.fullFound(rawResult, bitmap.getWidth(), bitmap.getHeight());
+                    }
+                }
+                // a no-op if the full resolution pass released it already
+                frameScheduler.releaseFrameData(frame);
+            } else {
+                int scale = tracked != null ? qrCodeDecoder.getTrackedScale() : 1;
+                BinaryBitmap bitmap = prepare(frame, rect, region == null ? rect : region,
+                        scale == 2 ? coarseContext : region == null ? decodeContext : regionContext, scale);
+                // The luminance has been copied out, so the camera can have its buffer back already
+                frameScheduler.releaseFrameData(frame);
+                rawResult = decodeSingle(bitmap, frame, rect);
+                if (rawResult != null && region == null && scaleSelector != null) {
+                    scaleSelector.fullFound(rawResult, bitmap.getWidth(), bitmap.getHeight());
+                }
+            }
+            if (rawResult == null && variantScheduler != null && !scanlines && !frameScheduler.shouldStop(frame)) {
+                rawResult = decodeVariant(frame, rect);
+            }
+            if (rawResult != null) {
+                rawResults = new Result[] {rawResult};
+            }
+            if (rawResults != null && qualityGate != null) {
+                qualityGate.calibrate(quality);
             }
-            data = rotatedData;
-        }
-        // add end
-        Result rawResult = null;
-        PlanarYUVLuminanceSource source = activity.getCameraManager().buildLuminanceSource(data, width, height);
-        if (source != null) {
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-            try {
-                rawResult = multiFormatReader.decodeWithState(bitmap);
-            } catch (ReaderException re) {
-                // continue
-            } finally {
-                multiFormatReader.reset();
+            if (regionTracker != null && !scanlines && tracked == null) {
+                regionTracker.report(region != null, rawResults != null, System.nanoTime() - start);
             }
         }
 
-        Handler handler = activity.getHandler();
-        if (rawResult != null) {
+        if (rawResults == null) {
+            if (rect != null && !frameScheduler.isCancelled(frame)) {
+                if (frame.abandoned) {
+                    metrics.recordAbandoned();
+                } else {
+                    metrics.recordFailure();
+                }
+            } else {
+                metrics.recordCancelled();
+            }
+        } else if (resultConfirmer != null && !frameScheduler.isCancelled(frame) &&
+                (rawResults = confirmResults(rawResults)) == null) {
+            metrics.recordUnconfirmed();
+        } else if (duplicateFilter != null && !frameScheduler.isCancelled(frame) &&
+                (rawResults = filterDuplicates(rawResults)) == null) {
+            metrics.recordDuplicate();
+        } else if (claimResult(frame)) {
+            metrics.recordSuccess();
+            metrics.recordDecodeDelivered();
+            if (formatStatistics != null) {
+                for (Result rawResult : rawResults) {
+                    formatStatistics.record(rawResult.getBarcodeFormat());
+                }
+            }
             // Don't log the barcode contents for security.
             long end = System.nanoTime();
-            Log.d(TAG, "Found barcode in " + TimeUnit.NANOSECONDS.toMillis(end - start) + " ms");
-            if (handler != null) {
-                Message message = Message.obtain(handler, R.id.decode_succeeded, rawResult);
-                Bundle bundle = new Bundle();
-                bundleThumbnail(source, bundle);
-                message.setData(bundle);
-                message.sendToTarget();
+            Log.d(TAG, "Found barcode in " + TimeUnit.NANOSECONDS.toMillis(end - start) + " ms, frame was " +
+                    TimeUnit.NANOSECONDS.toMillis(start - frame.timestamp) + " ms old");
+            if (resultHandler != null) {
+                // In multiple mode all results go out as an array, even if there is just one
+                Object delivered = multiBarcodeDecoder != null ? rawResults : rawResults[0];
+                Message.obtain(resultHandler, R.id.decode_succeeded, delivered).sendToTarget();
+                // The thumbnail follows the result rather than hold it up. The cropped luminance is
+                // only overwritten by this worker's next frame, so it is still intact here.
+                if (resultThumbnail) {
+                    Message message = Message.obtain(resultHandler, R.id.decode_thumbnail, delivered);
+                    Bundle bundle = new Bundle();
+                    bundleThumbnail(lastContext.getLuminanceSource(), bundle);
+                    metrics.record(ScanMetrics.Stage.THUMBNAIL, System.nanoTime() - end);
+                    message.setData(bundle);
+                    message.sendToTarget();
+                }
             }
         } else {
-            if (handler != null) {
-                Message message = Message.obtain(handler, R.id.decode_failed);
-                message.sendToTarget();
+            // stopped, or another frame got there first
+            metrics.recordCancelled();
+        }
+        if (formatGroupDecoder != null) {
+            // Groups cancelled by the result may still be reading the frame
+            formatGroupDecoder.awaitIdle();
+        }
+    }
+
+    /**
+     * Copies the luminance of {@code crop} out of the frame, at 1 / {@code scale} of its
+     * resolution, into {@code context}.
+     */
+    private BinaryBitmap prepare(PreviewFrame frame, Rect rect, Rect crop, DecodeContext context, int scale) {
+        long start = System.nanoTime();
+        lastContext = context;
+        lastCrop.set(crop);
+        frame.regionLeft = crop.left - rect.left;
+        frame.regionTop = crop.top - rect.top;
+        frame.regionScale = scale;
+        BinaryBitmap bitmap = context.prepare(frame, crop, scale);
+        metrics.record(ScanMetrics.Stage.PREPARE, System.nanoTime() - start);
+        return bitmap;
+    }
+
+    /**
+     * @return the first barcode found by the format groups, by the QR code decoder, or by the
+     * reader chain, in the crop last prepared.
+     */
+    private Result decodeSingle(BinaryBitmap bitmap, PreviewFrame frame, Rect rect) {
+        if (formatGroupDecoder != null) {
+            boolean matrixReady = formatGroupDecoder.needsBlackMatrix() && binarize(bitmap);
+            return formatGroupDecoder.decode(bitmap, frame, matrixReady);
+        }
+        if (qrCodeDecoder != null ? qrCodeDecoder.needsBlackMatrix() : readerChain.needsBlackMatrix()) {
+            binarize(bitmap);
+        }
+        cancellableCallback.setFrame(frame);
+        try {
+            if (qrCodeDecoder != null) {
+                return qrCodeDecoder.decode(bitmap, rect, lastCrop, frame.regionScale);
             }
+            return readerChain.decode(bitmap, frame.number);
+        } finally {
+            cancellableCallback.setFrame(null);
         }
     }
 
-    private static void bundleThumbnail(PlanarYUVLuminanceSource source, Bundle bundle) {
+    /**
+     * Tries the variant the scheduler picks, if any, on the crop last prepared. The frame data
+     * itself may have been handed back already.
+     */
+    private Result decodeVariant(PreviewFrame frame, Rect rect) {
+        VariantScheduler.Variant variant = variantScheduler.next();
+        if (variant == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Result result;
+        cancellableCallback.setFrame(frame);
+        try {
+            switch (variant) {
+                case INVERTED:
+                    BinaryBitmap inverted = lastContext.invert();
+                    if (qrCodeDecoder != null) {
+                        binarize(inverted);
+                        result = qrCodeDecoder.decode(inverted, rect, lastCrop, frame.regionScale);
+                    } else {
+                        if (readerChain.needsBlackMatrix()) {
+                            binarize(inverted);
+                        }
+                        result = readerChain.decode(inverted, frame.number);
+                    }
+                    // the thumbnail is rendered from the luminance
+                    lastContext.invert();
+                    break;
+                case ROTATED:
+                    result = readerChain.decodeRotated(rotatedContext.prepareRotated(lastContext.getLuminanceSource()));
+                    break;
+                default:
+                    BinaryBitmap bitmap = lastContext.getBitmap();
+                    result = harderQrCodeDecoder != null ?
+                            harderQrCodeDecoder.decode(bitmap, rect, lastCrop, frame.regionScale) :
+                            harderChain.decode(bitmap, frame.number);
+                    break;
+            }
+        } finally {
+            cancellableCallback.setFrame(null);
+        }
+        if (!frame.abandoned && !frameScheduler.isCancelled(frame)) {
+            variantScheduler.report(variant, result != null);
+        }
+        metrics.record(ScanMetrics.Stage.VARIANT, System.nanoTime() - start);
+        return result;
+    }
+
+    private int getPointCount() {
+        return formatGroupDecoder != null ?
+                formatGroupDecoder.getPointCount() : cancellableCallback.getPointCount();
+    }
+
+    /**
+     * @return the results which are not duplicates, or {@code null} if all of them are.
+     */
+    private Result[] filterDuplicates(Result[] rawResults) {
+        int accepted = 0;
+        for (Result rawResult : rawResults) {
+            if (duplicateFilter.accept(rawResult)) {
+                rawResults[accepted++] = rawResult;
+            }
+        }
+        return accepted == 0 ? null : truncate(rawResults, accepted);
+    }
+
+    /**
+     * @return the results which have been confirmed, or {@code null} if none have. Outside
+     * continuous mode the whole frame is held back until all of its results are confirmed, as
+     * delivering some of them would end the scan without the others.
+     */
+    private Result[] confirmResults(Result[] rawResults) {
+        int accepted = 0;
+        for (Result rawResult : rawResults) {
+            if (resultConfirmer.confirm(rawResult)) {
+                rawResults[accepted++] = rawResult;
+            }
+        }
+        if (accepted == 0 || (accepted < rawResults.length && duplicateFilter == null)) {
+            return null;
+        }
+        return truncate(rawResults, accepted);
+    }
+
+    private static Result[] truncate(Result[] rawResults, int length) {
+        if (length == rawResults.length) {
+            return rawResults;
+        }
+        Result[] newResults = new Result[length];
+        System.arraycopy(rawResults, 0, newResults, 0, length);
+        return newResults;
+    }
+
+    /**
+     * In continuous mode every result which got past the duplicate filter is delivered while
+     * decoding goes on. Otherwise only the first result since the scheduler last started is;
+     * claiming it stops the scheduler until the capture state machine asks for more.
+     */
+    private boolean claimResult(PreviewFrame frame) {
+        if (duplicateFilter != null) {
+            return !frameScheduler.isCancelled(frame);
+        }
+        return frameScheduler.claimResult(frame);
+    }
+
+    /**
+     * Computes the black matrix up front, so that its cost is accounted for on its own.
+     *
+     * @return {@code false} if the image is unsuitable for the 2D readers.
+     */
+    private boolean binarize(BinaryBitmap bitmap) {
+        long start = System.nanoTime();
+        try {
+            bitmap.getBlackMatrix();
+            return true;
+        } catch (NotFoundException nfe) {
+            return false;
+        } finally {
+            metrics.record(ScanMetrics.Stage.BINARIZE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Renders a mutable thumbnail, for the result points to be drawn on. The bundle never leaves
+     * the process, so the bitmap is handed over as is rather than compressed.
+     */
+    private static void bundleThumbnail(ReusableLuminanceSource source, Bundle bundle) {
         int[] pixels = source.renderThumbnail();
         int width = source.getThumbnailWidth();
         int height = source.getThumbnailHeight();
-        Bitmap bitmap = Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 50, out);
-        bundle.putByteArray(DecodeThread.BARCODE_BITMAP, out.toByteArray());
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        bundle.putParcelable(DecodeThread.BARCODE_BITMAP, bitmap);
         bundle.putFloat(DecodeThread.BARCODE_SCALED_FACTOR, (float) width / source.getWidth());
     }
 
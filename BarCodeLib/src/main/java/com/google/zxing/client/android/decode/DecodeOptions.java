@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.content.Intent;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.client.android.util.Intents;
+
+import java.util.Collection;
+
+/**
+ * How the decode workers should go about decoding, as requested by the {@link Intents.Scan}
+ * extras of the intent which started the scan.
+ */
+public final class DecodeOptions {
+
+    private static final int MAX_DEFAULT_WORKERS = 4;
+    private static final int DEFAULT_DUPLICATE_WINDOW_MS = 3000;
+    private static final int DEFAULT_SCANLINES = 9;
+    private static final int DEFAULT_CONFIRM_READS = 1;
+    /**
+     * Time budgets per frame by the formats scanned for. 1D barcodes are read in a few milliseconds when they
+     * are there at all; QR codes take longer to find and sample, and the other 2D formats longer
+     * still.
+     */
+    private static final int ONE_D_FRAME_BUDGET_MS = 60;
+    private static final int QR_CODE_FRAME_BUDGET_MS = 100;
+    private static final int DEFAULT_FRAME_BUDGET_MS = 150;
+
+    private int workerCount = getDefaultWorkerCount();
+    private boolean parallelFormats;
+    private boolean resultThumbnail;
+    private boolean continuous;
+    private boolean multiple;
+    private boolean qualityGate = true;
+    private boolean skipUnchangedFrames = true;
+    private boolean adaptiveFormatOrder;
+    private boolean decodeVariants = true;
+    private int scanlines = DEFAULT_SCANLINES;
+    private int frameBudgetMs = DEFAULT_FRAME_BUDGET_MS;
+    private int duplicateWindowMs = DEFAULT_DUPLICATE_WINDOW_MS;
+    private int confirmReads = DEFAULT_CONFIRM_READS;
+
+    /**
+     * @param intent The intent which started the scan; may be {@code null}.
+     * @return the options it asks for, defaults for any extra it doesn't set.
+     */
+    public static DecodeOptions parse(Intent intent) {
+        DecodeOptions options = new DecodeOptions();
+        if (intent != null) {
+            options.workerCount = Math.max(1, intent.getIntExtra(Intents.Scan.DECODE_THREADS, options.workerCount));
+            options.parallelFormats = intent.getBooleanExtra(Intents.Scan.PARALLEL_FORMATS, false);
+            options.resultThumbnail = intent.getBooleanExtra(Intents.Scan.RESULT_THUMBNAIL, false);
+            options.continuous = intent.getBooleanExtra(Intents.Scan.CONTINUOUS, false);
+            options.multiple = intent.getBooleanExtra(Intents.Scan.MULTIPLE, false);
+            options.qualityGate = intent.getBooleanExtra(Intents.Scan.QUALITY_GATE, true);
+            options.skipUnchangedFrames = intent.getBooleanExtra(Intents.Scan.SKIP_UNCHANGED_FRAMES, true);
+            options.adaptiveFormatOrder = intent.getBooleanExtra(Intents.Scan.ADAPTIVE_FORMAT_ORDER, false);
+            options.decodeVariants = intent.getBooleanExtra(Intents.Scan.DECODE_VARIANTS, true);
+            options.scanlines = Math.max(0, intent.getIntExtra(Intents.Scan.SCANLINES, DEFAULT_SCANLINES));
+            options.frameBudgetMs = Math.max(0, intent.getIntExtra(Intents.Scan.FRAME_BUDGET_MS,
+                    getDefaultFrameBudgetMs(DecodeFormatManager.parseDecodeFormats(intent))));
+            options.duplicateWindowMs = Math.max(0,
+                    intent.getIntExtra(Intents.Scan.DUPLICATE_WINDOW_MS, DEFAULT_DUPLICATE_WINDOW_MS));
+            options.confirmReads = Math.max(1, intent.getIntExtra(Intents.Scan.CONFIRM_READS, DEFAULT_CONFIRM_READS));
+        }
+        return options;
+    }
+
+    /**
+     * @return one worker per core, leaving a core for the camera and UI, up to a small maximum.
+     */
+    static int getDefaultWorkerCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores - 1, MAX_DEFAULT_WORKERS));
+    }
+
+    /**
+     * @param formats The formats to decode, as parsed from {@link Intents.Scan#FORMATS} or
+     *                {@link Intents.Scan#MODE}, or {@code null} for any.
+     */
+    static int getDefaultFrameBudgetMs(Collection<BarcodeFormat> formats) {
+        if (formats == null || formats.isEmpty()) {
+            return DEFAULT_FRAME_BUDGET_MS;
+        }
+        if (DecodeFormatManager.isOneDFormats(formats)) {
+            return ONE_D_FRAME_BUDGET_MS;
+        }
+        if (DecodeFormatManager.isQrCodeOnly(formats)) {
+            return QR_CODE_FRAME_BUDGET_MS;
+        }
+        return DEFAULT_FRAME_BUDGET_MS;
+    }
+
+    int getWorkerCount() {
+        return workerCount;
+    }
+
+    boolean isParallelFormats() {
+        return parallelFormats;
+    }
+
+    boolean isResultThumbnail() {
+        return resultThumbnail;
+    }
+
+    /**
+     * @return {@code true} if every new barcode is delivered while decoding goes on, rather than
+     * decoding stopping at the first result.
+     */
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    /**
+     * @return {@code true} if all barcodes in a frame are delivered at once, as an array.
+     */
+    public boolean isMultiple() {
+        return multiple;
+    }
+
+    boolean isQualityGate() {
+        return qualityGate;
+    }
+
+    boolean isSkipUnchangedFrames() {
+        return skipUnchangedFrames;
+    }
+
+    boolean isAdaptiveFormatOrder() {
+        return adaptiveFormatOrder;
+    }
+
+    boolean isDecodeVariants() {
+        return decodeVariants;
+    }
+
+    /**
+     * @return the number of horizontal rows a 1D only scan reads, or 0 to always decode the whole
+     * framing rectangle.
+     */
+    int getScanlines() {
+        return scanlines;
+    }
+
+    /**
+     * @return how long a frame may be decoded for before it is given up on in favour of a newer
+     * one, or 0 to always finish decoding.
+     */
+    int getFrameBudgetMs() {
+        return frameBudgetMs;
+    }
+
+    int getDuplicateWindowMs() {
+        return duplicateWindowMs;
+    }
+
+    /**
+     * @return the number of frames a 1D barcode must be read from before it is delivered, 1 to
+     * deliver it on the first read.
+     */
+    int getConfirmReads() {
+        return confirmReads;
+    }
+
+}
@@ -23,7 +23,6 @@ import android.util.Log;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.ResultPointCallback;
-import com.google.zxing.client.android.CaptureActivity;
 
 import java.util.Collection;
 import java.util.EnumMap;
@@ -41,18 +40,18 @@ public final class DecodeThread extends Thread {
     public static final String BARCODE_BITMAP = "barcode_bitmap";
     public static final String BARCODE_SCALED_FACTOR = "barcode_scaled_factor";
 
-    private final CaptureActivity activity;
+    private final DecodeEngine decodeEngine;
     private final Map<DecodeHintType, Object> hints;
     private Handler handler;
     private final CountDownLatch handlerInitLatch;
 
-    public DecodeThread(CaptureActivity activity,
+    public DecodeThread(DecodeEngine decodeEngine,
                         Collection<BarcodeFormat> decodeFormats,
                         Map<DecodeHintType, ?> baseHints,
                         String characterSet,
                         ResultPointCallback resultPointCallback) {
 
-        this.activity = activity;
+        this.decodeEngine = decodeEngine;
         handlerInitLatch = new CountDownLatch(1);
 
         hints = new EnumMap<>(DecodeHintType.class);
@@ -91,9 +90,12 @@ public final class DecodeThread extends Thread {
     @Override
     public void run() {
         Looper.prepare();
-        handler = new DecodeHandler(activity, hints);
+        handler = new DecodeHandler(decodeEngine, hints);
         handlerInitLatch.countDown();
+        // Not before the latch: the engine waits for it on the main thread
+        decodeEngine.onWorkerStarted();
         Looper.loop();
+        decodeEngine.onWorkerExited();
     }
 
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops repeated reads of the same barcode during a continuous scan. A barcode, identified by its
+ * format and contents, is a duplicate if it was last seen less than the window ago; every sighting
+ * restarts the window, so a barcode held in front of the camera is only reported once.
+ */
+final class DuplicateFilter {
+
+    private final long windowNanos;
+    // Ordered by last sighting, oldest first
+    private final Map<String, Long> lastSeen = new LinkedHashMap<>();
+
+    DuplicateFilter(long windowMs) {
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+    }
+
+    /**
+     * Records a sighting of the result. Workers call this concurrently, so that of two frames
+     * showing the same new barcode exactly one is accepted.
+     *
+     * @return {@code true} if the result is not a duplicate and should be delivered.
+     */
+    synchronized boolean accept(Result result) {
+        long timestamp = System.nanoTime();
+        Iterator<Long> sightings = lastSeen.values().iterator();
+        while (sightings.hasNext() && timestamp - sightings.next() >= windowNanos) {
+            sightings.remove();
+        }
+        String key = result.getBarcodeFormat().name() + ':' + result.getText();
+        Long previous = lastSeen.remove(key);
+        lastSeen.put(key, timestamp);
+        return previous == null;
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes one frame with several readers at once, each restricted to one group of formats from
+ * {@link DecodeFormatManager#partitionDecodeFormats(Collection)}, so a frame costs about as much
+ * as its slowest group rather than the sum of all of them.
+ * <p>
+ * All groups share one binarized image. The caller computes the black matrix up front, so it is
+ * only read after that; the 1D group is the only one which asks for black rows, and it runs on
+ * the calling thread.
+ */
+final class FormatGroupDecoder {
+
+    private final FormatGroup[] groups;
+    private final CompletionService<Result> completionService;
+    private final boolean needsBlackMatrix;
+    private int outstanding;
+
+    @SuppressWarnings("unchecked")
+    FormatGroupDecoder(Executor executor,
+                       FrameScheduler frameScheduler,
+                       Map<DecodeHintType, Object> hints,
+                       RegionTracker regionTracker,
+                       ScanMetricsCollector metrics,
+                       FormatStatistics statistics) {
+        Collection<BarcodeFormat> formats = (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        ResultPointCallback resultPointCallback =
+                (ResultPointCallback) hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+        List<Set<BarcodeFormat>> partition = DecodeFormatManager.partitionDecodeFormats(formats);
+        groups = new FormatGroup[partition.size()];
+        boolean anyTwoD = false;
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = new FormatGroup(partition.get(i), hints,
+                    new CancellableResultPointCallback(frameScheduler, resultPointCallback, regionTracker), metrics,
+                    statistics);
+            anyTwoD |= !groups[i].oneD;
+        }
+        needsBlackMatrix = anyTwoD;
+        completionService = new ExecutorCompletionService<>(executor);
+    }
+
+    /**
+     * @return {@code true} if any of the groups works on the black matrix rather than on rows.
+     */
+    boolean needsBlackMatrix() {
+        return needsBlackMatrix;
+    }
+
+    /**
+     * @return the number of possible result points all groups have reported so far; only ever
+     * grows.
+     */
+    int getPointCount() {
+        int count = 0;
+        for (FormatGroup group : groups) {
+            count += group.callback.getPointCount();
+        }
+        return count;
+    }
+
+    /**
+     * Tries all groups on the image. As soon as one of them finds a result the others are
+     * cancelled, but may still be running; call {@link #awaitIdle()} before reusing the image data.
+     *
+     * @param matrixReady {@code true} if the bitmap's black matrix has been computed; otherwise
+     *                    only the row based 1D group tries.
+     * @return the first result found, or {@code null}.
+     */
+    Result decode(BinaryBitmap bitmap, PreviewFrame frame, boolean matrixReady) {
+        FormatGroup inline = null;
+        for (FormatGroup group : groups) {
+            if (!matrixReady && !group.oneD) {
+                continue;
+            }
+            group.prepare(bitmap, frame);
+            if (inline == null) {
+                inline = group;
+            } else {
+                completionService.submit(group);
+                outstanding++;
+            }
+        }
+
+        Result result = inline == null ? null : inline.call();
+        while (result == null && outstanding > 0) {
+            try {
+                Future<Result> future = completionService.take();
+                outstanding--;
+                result = future.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException ee) {
+                // continue with the other groups
+            }
+        }
+        for (FormatGroup group : groups) {
+            group.cancel();
+        }
+        return result;
+    }
+
+    /**
+     * Waits for cancelled groups of the last {@link #decode(BinaryBitmap, PreviewFrame, boolean)}
+     * to return.
+     */
+    void awaitIdle() {
+        boolean interrupted = false;
+        while (outstanding > 0) {
+            try {
+                completionService.take();
+                outstanding--;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class FormatGroup implements Callable<Result> {
+
+        private final ReaderChain readerChain;
+        private final CancellableResultPointCallback callback;
+        private final boolean oneD;
+        private BinaryBitmap bitmap;
+        private int frameNumber;
+
+        FormatGroup(Set<BarcodeFormat> formats,
+                    Map<DecodeHintType, Object> baseHints,
+                    CancellableResultPointCallback callback,
+                    ScanMetricsCollector metrics,
+                    FormatStatistics statistics) {
+            Map<DecodeHintType, Object> hints = new EnumMap<>(baseHints);
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+            hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, callback);
+            readerChain = new ReaderChain(hints, callback, metrics, statistics);
+            this.callback = callback;
+            oneD = DecodeFormatManager.isOneDFormats(formats);
+        }
+
+        void prepare(BinaryBitmap bitmap, PreviewFrame frame) {
+            this.bitmap = bitmap;
+            frameNumber = frame.number;
+            callback.setFrame(frame);
+        }
+
+        void cancel() {
+            callback.cancel();
+        }
+
+        @Override
+        public Result call() {
+            return readerChain.decode(bitmap, frameNumber);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers which formats have been read lately, so that readers can be tried most likely format
+ * first, and readers for formats which are never read can mostly be skipped. Every hit adds one to
+ * its format's score, after all scores have decayed a little, so the statistics follow what is
+ * being scanned now rather than what was scanned a year ago.
+ * <p>
+ * The scores are kept in the app's private preferences, so that they carry over from one scan to
+ * the next, and across restarts. They are read by the first worker to start, as reading them may
+ * go to disk, and written back once, when the scan is over. Shared by all workers.
+ */
+final class FormatStatistics {
+
+    private static final String PREFERENCES_NAME = "zxing_format_statistics";
+    private static final String KEY_SCORES = "scores";
+    private static final Pattern ENTRY_PATTERN = Pattern.compile(";");
+    private static final Pattern SCORE_PATTERN = Pattern.compile("=");
+
+    /**
+     * Weight the earlier hits keep when a new one comes in; after about 23 more hits an old one
+     * counts half.
+     */
+    private static final float DECAY = 0.97f;
+    /**
+     * Every this many frames, readers narrowed down to the likely formats try all of theirs, in
+     * case what is being scanned has changed.
+     */
+    static final int FULL_PASS_INTERVAL = 4;
+    /**
+     * Total score below which there is too little history to narrow anything down.
+     */
+    static final float MIN_HISTORY = 5.0f;
+    /**
+     * Share of the hits among a set of formats which makes one of them dominant.
+     */
+    private static final float DOMINANT_SHARE = 0.9f;
+
+    private final Context context;
+    private final float[] scores = new float[BarcodeFormat.values().length];
+    private SharedPreferences preferences;
+    private boolean dirty;
+    private volatile int version;
+
+    /**
+     * Cheap; the scores are only read by {@link #load()}.
+     */
+    FormatStatistics(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Reads the saved scores, unless they have been already. Off the main thread, as it may wait
+     * for the disk.
+     */
+    synchronized void load() {
+        if (preferences != null) {
+            return;
+        }
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        parse(preferences.getString(KEY_SCORES, null));
+        version++;
+    }
+
+    /**
+     * Writes the scores back in the background, if any hit has been recorded since they were
+     * last saved.
+     */
+    void save() {
+        String saved;
+        synchronized (this) {
+            if (!dirty || preferences == null) {
+                return;
+            }
+            dirty = false;
+            saved = format();
+        }
+        preferences.edit().putString(KEY_SCORES, saved).apply();
+    }
+
+    /**
+     * @return a number which changes whenever a hit is recorded, so that orderings derived from
+     * the scores only need to be worked out again when it does.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Records a barcode read. It is only saved by {@link #save()}.
+     */
+    synchronized void record(BarcodeFormat format) {
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] *= DECAY;
+        }
+        scores[format.ordinal()] += 1.0f;
+        dirty = true;
+        version++;
+    }
+
+    /**
+     * @return the total score of {@code formats}.
+     */
+    synchronized float getScore(Collection<BarcodeFormat> formats) {
+        float score = 0.0f;
+        for (BarcodeFormat format : formats) {
+            score += scores[format.ordinal()];
+        }
+        return score;
+    }
+
+    /**
+     * @return the format among {@code formats} which nearly all their hits went to, or
+     * {@code null} if there is none, or too little history to tell.
+     */
+    synchronized BarcodeFormat getDominantFormat(Collection<BarcodeFormat> formats) {
+        float total = 0.0f;
+        BarcodeFormat best = null;
+        for (BarcodeFormat format : formats) {
+            float score = scores[format.ordinal()];
+            total += score;
+            if (best == null || score > scores[best.ordinal()]) {
+                best = format;
+            }
+        }
+        if (best == null || total < MIN_HISTORY || scores[best.ordinal()] < DOMINANT_SHARE * total) {
+            return null;
+        }
+        return best;
+    }
+
+    private String format() {
+        StringBuilder result = new StringBuilder();
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            float score = scores[format.ordinal()];
+            if (score >= 0.01f) {
+                if (result.length() > 0) {
+                    result.append(';');
+                }
+                result.append(format.name()).append('=').append(score);
+            }
+        }
+        return result.toString();
+    }
+
+    private void parse(String saved) {
+        if (saved == null || saved.isEmpty()) {
+            return;
+        }
+        for (String entry : ENTRY_PATTERN.split(saved)) {
+            String[] parts = SCORE_PATTERN.split(entry);
+            if (parts.length != 2) {
+                continue;
+            }
+            try {
+                scores[BarcodeFormat.valueOf(parts[0]).ordinal()] = Math.max(0.0f, Float.parseFloat(parts[1]));
+            } catch (IllegalArgumentException iae) {
+                // a format this version doesn't know, or a garbled score
+            }
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns away frames not worth decoding, such as those taken while auto focus is still hunting,
+ * or of a blank surface, before they cost a binarization and detection pass. A sparse grid of
+ * luminance samples inside the framing rectangle gives the contrast, as the standard deviation,
+ * and the sharpness, as the mean difference to neighbouring pixels relative to the contrast, so
+ * that it doesn't depend on the lighting.
+ * <p>
+ * Until a frame has been decoded only frames without any contrast are turned away. After that,
+ * the thresholds follow the lowest contrast and sharpness frames still decoded at, and a frame
+ * gets through now and then anyway, so that they can come down again. Shared by all workers.
+ */
+final class FrameQualityGate {
+
+    /**
+     * Samples per side of the grid.
+     */
+    private static final int GRID_SIZE = 32;
+    /**
+     * Standard deviation of the luminance below which a frame is taken to be blank.
+     */
+    private static final float MIN_CONTRAST = 8.0f;
+    /**
+     * Fraction of the lowest decoded contrast and sharpness below which a frame is turned away.
+     */
+    private static final float THRESHOLD_FRACTION = 0.4f;
+    private static final int MAX_CONSECUTIVE_REJECTS = 10;
+
+    private float contrastFloor;
+    private float sharpnessFloor;
+    private int rejects;
+
+    /**
+     * Contrast and sharpness of one frame, kept by each worker to calibrate the gate with if the
+     * frame decodes.
+     */
+    static final class Sample {
+        float contrast;
+        float sharpness;
+    }
+
+    /**
+     * Samples the luminance inside {@code rect}.
+     *
+     * @param frame The preview frame.
+     * @param rect  The framing rectangle, in preview coordinates as oriented on screen.
+     */
+    static void measure(PreviewFrame frame, Rect rect, Sample sample) {
+        ByteBuffer plane = frame.plane;
+        int base = frame.offset(rect.left, rect.top);
+        int xStride = frame.xStride();
+        int yStride = frame.yStride();
+        int xStep = Math.max(1, (rect.width() - 1) / GRID_SIZE);
+        int yStep = Math.max(1, (rect.height() - 1) / GRID_SIZE);
+        long sum = 0L;
+        long sumSquares = 0L;
+        long gradients = 0L;
+        int count = 0;
+        for (int y = 0; y < rect.height() - 1; y += yStep) {
+            for (int x = 0; x < rect.width() - 1; x += xStep) {
+                int offset = base + x * xStride + y * yStride;
+                int value = plane.get(offset) & 0xff;
+                int dx = Math.abs((plane.get(offset + xStride) & 0xff) - value);
+                int dy = Math.abs((plane.get(offset + yStride) & 0xff) - value);
+                sum += value;
+                sumSquares += value * value;
+                gradients += Math.max(dx, dy);
+                count++;
+            }
+        }
+        if (count == 0) {
+            sample.contrast = 0.0f;
+            sample.sharpness = 0.0f;
+            return;
+        }
+        float mean = (float) sum / count;
+        float contrast = (float) Math.sqrt(Math.max(0.0f, (float) sumSquares / count - mean * mean));
+        sample.contrast = contrast;
+        sample.sharpness = (float) gradients / count / (contrast + 1.0f);
+    }
+
+    /**
+     * @return {@code true} if the frame sampled is worth decoding.
+     */
+    synchronized boolean accept(Sample sample) {
+        boolean good = sample.contrast >= Math.max(MIN_CONTRAST, contrastFloor * THRESHOLD_FRACTION) &&
+                sample.sharpness >= sharpnessFloor * THRESHOLD_FRACTION;
+        if (good || ++rejects > MAX_CONSECUTIVE_REJECTS) {
+            rejects = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lowers the thresholds towards a decoded frame which only just made it, and raises them
+     * slowly otherwise.
+     */
+    synchronized void calibrate(Sample sample) {
+        contrastFloor = follow(contrastFloor, sample.contrast);
+        sharpnessFloor = follow(sharpnessFloor, sample.sharpness);
+    }
+
+    private static float follow(float floor, float value) {
+        if (floor == 0.0f) {
+            return value;
+        }
+        return floor + (value - floor) / (value < floor ? 2.0f : 16.0f);
+    }
+
+}
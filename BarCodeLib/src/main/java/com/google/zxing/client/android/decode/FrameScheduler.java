@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.zxing.client.android.camera.FrameSource;
+import com.google.zxing.client.android.camera.PreviewFrameListener;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Sits between the camera, or whatever other {@link FrameSource} frames come from, and the decode
+ * workers and always keeps the freshest frame ready. The camera keeps streaming while frames are
+ * being decoded; a frame which is still waiting when a newer one arrives is dropped and its buffer
+ * handed back to the camera. A worker pulls the next frame itself as soon as it is done, without
+ * going through the main thread.
+ * <p>
+ * Frames go to whichever worker is idle, but only as many workers are kept busy as are needed to
+ * keep up with the camera, judging by the measured decode time and frame interval. Each
+ * {@link #start()} begins a new generation; the first worker to claim a result for it stops the
+ * scheduler, and work still running on older generations is cancelled.
+ * <p>
+ * Frames of a scene which has stopped changing are mostly handed straight back to the camera,
+ * see {@link SceneChangeDetector}.
+ */
+public final class FrameScheduler implements PreviewFrameListener {
+
+    private static final String TAG = FrameScheduler.class.getSimpleName();
+
+    /**
+     * Weight of the newest sample in the moving averages is 1 / 2^AVERAGE_SHIFT.
+     */
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final FrameSource frameSource;
+    private final int decodeMessage;
+    private final ScanMetricsCollector metrics;
+    private final SceneChangeDetector changeDetector;
+    private final Deque<Handler> idleWorkers = new ArrayDeque<>();
+    private final PreviewFrame pendingFrame = new PreviewFrame();
+    // only used on the thread frames arrive on
+    private final PreviewFrame arrivingFrame = new PreviewFrame();
+    private volatile int generation;
+    private boolean running;
+    private int workerCount;
+    private int busyWorkers;
+    private int activeWorkers = 1;
+    private long lastFrameTimestamp;
+    private long averageFrameIntervalNanos;
+    private long averageDecodeNanos;
+
+    /**
+     * @param frameSource   Where to take frames from.
+     * @param decodeMessage The what field of the message which tells a worker a frame is ready.
+     * @param metrics       Receives dropped frames, and how long frames waited for a worker.
+     * @param skipUnchanged {@code true} to throttle decoding while the scene doesn't change.
+     */
+    public FrameScheduler(FrameSource frameSource,
+                          int decodeMessage,
+                          ScanMetricsCollector metrics,
+                          boolean skipUnchanged) {
+        this.frameSource = frameSource;
+        this.decodeMessage = decodeMessage;
+        this.metrics = metrics;
+        changeDetector = skipUnchanged ? new SceneChangeDetector() : null;
+    }
+
+    /**
+     * Adds a decode worker. It is sent {@code decodeMessage} whenever it should call
+     * {@link #takeFrame(Handler, PreviewFrame)}.
+     */
+    synchronized void addWorker(Handler worker) {
+        idleWorkers.push(worker);
+        workerCount++;
+    }
+
+    /**
+     * Starts feeding preview frames to the workers.
+     */
+    public void start() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+            generation++;
+            frameSource.setPreviewFrameListener(this);
+        }
+    }
+
+    /**
+     * Stops feeding frames to the workers, and cancels the frames they are working on.
+     */
+    public void stop() {
+        ByteBuffer stale;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            stale = halt();
+        }
+        frameSource.releasePreviewBuffer(stale);
+    }
+
+    private ByteBuffer halt() {
+        running = false;
+        generation++;
+        frameSource.setPreviewFrameListener(null);
+        ByteBuffer stale = pendingFrame.plane;
+        pendingFrame.clear();
+        Log.d(TAG, "Stopped with " + activeWorkers + '/' + workerCount + " workers active, average decode " +
+                averageDecodeNanos / 1000L + " us, average frame interval " + averageFrameIntervalNanos / 1000L + " us");
+        return stale;
+    }
+
+    @Override
+    public void onPreviewFrame(ByteBuffer plane, int width, int height, int rowStride, int pixelStride, int rotation,
+                               long timestamp) {
+        metrics.recordFrameArrived(timestamp);
+        boolean changed = true;
+        if (changeDetector != null) {
+            Rect rect = frameSource.getFramingRectInPreview();
+            arrivingFrame.set(plane, width, height, rowStride, pixelStride, rotation, timestamp);
+            changed = rect == null || changeDetector.isWorthDecoding(arrivingFrame, rect, generation);
+            arrivingFrame.clear();
+        }
+        ByteBuffer stale;
+        Handler worker = null;
+        synchronized (this) {
+            if (running) {
+                if (lastFrameTimestamp != 0) {
+                    averageFrameIntervalNanos = average(averageFrameIntervalNanos, timestamp - lastFrameTimestamp);
+                }
+                lastFrameTimestamp = timestamp;
+                if (changed) {
+                    stale = pendingFrame.plane;
+                    if (stale != null) {
+                        metrics.recordDroppedFrame();
+                    }
+                    pendingFrame.set(plane, width, height, rowStride, pixelStride, rotation, timestamp);
+                    if (busyWorkers < activeWorkers && !idleWorkers.isEmpty()) {
+                        worker = idleWorkers.pop();
+                        busyWorkers++;
+                    }
+                } else {
+                    // any pending frame shows the same, and is just as good
+                    metrics.recordUnchangedFrame();
+                    stale = plane;
+                }
+            } else {
+                stale = plane;
+            }
+        }
+        frameSource.releasePreviewBuffer(stale);
+        if (worker != null) {
+            worker.obtainMessage(decodeMessage).sendToTarget();
+        }
+    }
+
+    /**
+     * Moves the pending frame, if any, to a worker.
+     *
+     * @param worker The worker asking.
+     * @param frame  Receives the frame to decode.
+     * @return {@code false} if there is nothing to decode, in which case the worker is idle again.
+     */
+    synchronized boolean takeFrame(Handler worker, PreviewFrame frame) {
+        if (!running || pendingFrame.plane == null) {
+            busyWorkers--;
+            idleWorkers.push(worker);
+            return false;
+        }
+        frame.set(pendingFrame);
+        frame.generation = generation;
+        pendingFrame.clear();
+        metrics.record(ScanMetrics.Stage.FRAME_WAIT, System.nanoTime() - frame.timestamp);
+        return true;
+    }
+
+    /**
+     * Gives the frame's buffer back to the camera early, once its contents have been copied.
+     */
+    void releaseFrameData(PreviewFrame frame) {
+        frameSource.releasePreviewBuffer(frame.plane);
+        frame.clear();
+    }
+
+    /**
+     * Gives a decoded frame back to the camera, and hands the worker the next frame if a newer one
+     * arrived in the meantime.
+     *
+     * @param worker      The worker which decoded the frame.
+     * @param frame       The frame returned by {@link #takeFrame(Handler, PreviewFrame)}.
+     * @param decodeNanos How long decoding took.
+     */
+    void finishFrame(Handler worker, PreviewFrame frame, long decodeNanos) {
+        frameSource.releasePreviewBuffer(frame.plane);
+        frame.clear();
+        boolean next;
+        synchronized (this) {
+            averageDecodeNanos = average(averageDecodeNanos, decodeNanos);
+            if (averageFrameIntervalNanos > 0) {
+                long needed = (averageDecodeNanos + averageFrameIntervalNanos - 1) / averageFrameIntervalNanos;
+                activeWorkers = (int) Math.max(1L, Math.min(workerCount, needed));
+            }
+            next = running && pendingFrame.plane != null && busyWorkers <= activeWorkers;
+            if (!next) {
+                busyWorkers--;
+                idleWorkers.push(worker);
+            }
+        }
+        if (next) {
+            worker.obtainMessage(decodeMessage).sendToTarget();
+        }
+    }
+
+    /**
+     * @return {@code true} if the frame belongs to a generation which has been stopped, so that
+     * any further work on it is wasted.
+     */
+    boolean isCancelled(PreviewFrame frame) {
+        return frame.generation != generation;
+    }
+
+    /**
+     * Decides whether work on the frame should stop, because its generation has been stopped, or
+     * because it has run past its deadline while a newer frame is waiting; a frame past its
+     * deadline is still worth finishing if there is nothing newer. Cheap until the deadline, so
+     * readers can ask between stages.
+     *
+     * @return {@code true} if the frame is cancelled or, marking it so, abandoned.
+     */
+    boolean shouldStop(PreviewFrame frame) {
+        if (frame.generation != generation) {
+            return true;
+        }
+        if (frame.deadline == 0L || System.nanoTime() - frame.deadline < 0L) {
+            return false;
+        }
+        synchronized (this) {
+            if (pendingFrame.plane == null) {
+                return false;
+            }
+        }
+        frame.abandoned = true;
+        return true;
+    }
+
+    /**
+     * Claims the right to deliver a result for the frame. Only the first claim of each generation
+     * succeeds; it stops the scheduler until {@link #start()} is called again.
+     *
+     * @return {@code true} if the caller should deliver its result.
+     */
+    boolean claimResult(PreviewFrame frame) {
+        ByteBuffer stale;
+        synchronized (this) {
+            if (!running || frame.generation != generation) {
+                return false;
+            }
+            stale = halt();
+        }
+        frameSource.releasePreviewBuffer(stale);
+        return true;
+    }
+
+    private static long average(long average, long sample) {
+        return average == 0 ? sample : average + ((sample - average) >> AVERAGE_SHIFT);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+/**
+ * Rotates the luminance of portrait frames, whose data is still in the camera's landscape
+ * orientation.
+ */
+final class LuminanceRotator {
+
+    /**
+     * Side of the square tiles the transpose works on, so that both the rows read and the rows
+     * written stay in cache.
+     */
+    private static final int BLOCK_SIZE = 32;
+
+    private LuminanceRotator() {
+    }
+
+    /**
+     * Rotates a crop of the luminance plane 90 degrees clockwise. The portrait pixel at column
+     * {@code x}, row {@code y} is the landscape pixel at row {@code width - 1 - x}, column {@code y}.
+     *
+     * @param src        The landscape frame; only its first {@code width} rows are read.
+     * @param width      The width of the frame once rotated, i.e. the landscape height.
+     * @param rowStride  The distance between landscape rows, at least the landscape width.
+     * @param left       The left edge of the crop, in portrait coordinates.
+     * @param top        The top edge of the crop, in portrait coordinates.
+     * @param cropWidth  The width of the crop.
+     * @param cropHeight The height of the crop.
+     * @param dst        Receives the crop, row by row, {@code cropWidth} bytes per row.
+     */
+    static void rotateClockwise(byte[] src, int width, int rowStride, int left, int top,
+                                int cropWidth, int cropHeight, byte[] dst) {
+        for (int y0 = 0; y0 < cropHeight; y0 += BLOCK_SIZE) {
+            int y1 = Math.min(y0 + BLOCK_SIZE, cropHeight);
+            for (int x0 = 0; x0 < cropWidth; x0 += BLOCK_SIZE) {
+                int x1 = Math.min(x0 + BLOCK_SIZE, cropWidth);
+                for (int x = x0; x < x1; x++) {
+                    // One landscape row, read sequentially, becomes one portrait column
+                    int srcOffset = (width - 1 - left - x) * rowStride + top;
+                    for (int y = y0; y < y1; y++) {
+                        dst[y * cropWidth + x] = src[srcOffset + y];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #rotateClockwise(byte[], int, int, int, int, int, int, byte[])}, but at half
+     * resolution: each pixel written is the average of a 2x2 block of the crop, so the crop
+     * covers {@code 2 * cropWidth} by {@code 2 * cropHeight} portrait pixels.
+     */
+    static void rotateClockwiseHalf(byte[] src, int width, int rowStride, int left, int top,
+                                    int cropWidth, int cropHeight, byte[] dst) {
+        for (int y0 = 0; y0 < cropHeight; y0 += BLOCK_SIZE) {
+            int y1 = Math.min(y0 + BLOCK_SIZE, cropHeight);
+            for (int x0 = 0; x0 < cropWidth; x0 += BLOCK_SIZE) {
+                int x1 = Math.min(x0 + BLOCK_SIZE, cropWidth);
+                for (int x = x0; x < x1; x++) {
+                    // Two adjacent landscape rows become one portrait column
+                    int srcOffset = (width - 2 - left - 2 * x) * rowStride + top;
+                    for (int y = y0; y < y1; y++) {
+                        dst[y * cropWidth + x] = DecodeContext.average(src, srcOffset + 2 * y, rowStride);
+                    }
+                }
+            }
+        }
+    }
+
+}
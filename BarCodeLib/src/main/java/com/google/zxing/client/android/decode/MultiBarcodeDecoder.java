@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.MultipleBarcodeReader;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds all barcodes in a frame rather than the first one. The whole image is searched on the
+ * calling thread while four overlapping tiles, one per corner, are searched on the shared
+ * executor; a barcode which is small next to the whole image, or hidden behind a bigger one, is
+ * often only found in a tile. Each pass repeatedly searches around what it already found, and
+ * also looks for several QR codes at once if QR codes are wanted.
+ * <p>
+ * Each tile binarizes its own crop of the luminance. Results are in the coordinates of the whole
+ * image, and reads of the same contents and format by several passes are merged.
+ */
+final class MultiBarcodeDecoder {
+
+    /**
+     * Width and height of a tile, as a fraction of the image's; tiles overlap by the difference
+     * to one half, so that a barcode on the border between two still lies whole in one of them.
+     */
+    private static final float TILE_FRACTION = 0.6f;
+
+    private static final Result[] NO_RESULTS = new Result[0];
+
+    private final FrameScheduler frameScheduler;
+    private final Pass[] passes;
+    private final CompletionService<Result[]> completionService;
+
+    @SuppressWarnings("unchecked")
+    MultiBarcodeDecoder(Executor executor,
+                        FrameScheduler frameScheduler,
+                        Map<DecodeHintType, Object> hints,
+                        ScanMetricsCollector metrics) {
+        Collection<BarcodeFormat> formats = (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        boolean qrCode = formats == null || formats.isEmpty() || formats.contains(BarcodeFormat.QR_CODE);
+        ResultPointCallback resultPointCallback =
+                (ResultPointCallback) hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+        this.frameScheduler = frameScheduler;
+        passes = new Pass[5];
+        for (int i = 0; i < passes.length; i++) {
+            passes[i] = new Pass(hints, qrCode,
+                    new CancellableResultPointCallback(frameScheduler, resultPointCallback, null), metrics);
+        }
+        completionService = new ExecutorCompletionService<>(executor);
+    }
+
+    /**
+     * @return all barcodes found, in no particular order, or {@code null} if there are none or
+     * the frame was cancelled.
+     */
+    Result[] decode(BinaryBitmap bitmap, PreviewFrame frame) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int tileWidth = (int) (width * TILE_FRACTION);
+        int tileHeight = (int) (height * TILE_FRACTION);
+        passes[0].prepare(bitmap, 0, 0, frame);
+        passes[1].prepare(bitmap.crop(0, 0, tileWidth, tileHeight), 0, 0, frame);
+        passes[2].prepare(bitmap.crop(width - tileWidth, 0, tileWidth, tileHeight), width - tileWidth, 0, frame);
+        passes[3].prepare(bitmap.crop(0, height - tileHeight, tileWidth, tileHeight), 0, height - tileHeight, frame);
+        passes[4].prepare(bitmap.crop(width - tileWidth, height - tileHeight, tileWidth, tileHeight),
+                width - tileWidth, height - tileHeight, frame);
+        for (int i = 1; i < passes.length; i++) {
+            completionService.submit(passes[i]);
+        }
+
+        Map<String, Result> found = new LinkedHashMap<>();
+        merge(passes[0].call(), found);
+        boolean interrupted = false;
+        for (int outstanding = passes.length - 1; outstanding > 0; ) {
+            try {
+                Future<Result[]> future = completionService.take();
+                outstanding--;
+                merge(future.get(), found);
+            } catch (InterruptedException ie) {
+                // the tiles still read the frame, so they must be waited for
+                interrupted = true;
+            } catch (ExecutionException ee) {
+                // continue with the other tiles
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // barcodes found by passes which finished before the frame ran out of time are kept
+        if (found.isEmpty() || frameScheduler.isCancelled(frame)) {
+            return null;
+        }
+        return found.values().toArray(new Result[found.size()]);
+    }
+
+    private static void merge(Result[] results, Map<String, Result> found) {
+        for (Result result : results) {
+            String key = result.getBarcodeFormat().name() + ':' + result.getText();
+            if (!found.containsKey(key)) {
+                found.put(key, result);
+            }
+        }
+    }
+
+    /**
+     * One image or tile, searched with its own readers.
+     */
+    private static final class Pass implements Callable<Result[]> {
+
+        private final Map<DecodeHintType, Object> hints;
+        private final CancellableResultPointCallback callback;
+        private final MultipleBarcodeReader reader;
+        private final MultipleBarcodeReader qrCodeReader;
+        private BinaryBitmap image;
+        private int left;
+        private int top;
+
+        Pass(Map<DecodeHintType, Object> baseHints,
+             boolean qrCode,
+             CancellableResultPointCallback callback,
+             ScanMetricsCollector metrics) {
+            hints = new EnumMap<>(baseHints);
+            hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, callback);
+            this.callback = callback;
+            reader = new GenericMultipleBarcodeReader(new ChainReader(new ReaderChain(hints, callback, metrics, null)));
+            qrCodeReader = qrCode ? new QRCodeMultiReader() : null;
+        }
+
+        void prepare(BinaryBitmap image, int left, int top, PreviewFrame frame) {
+            this.image = image;
+            this.left = left;
+            this.top = top;
+            callback.setFrame(frame);
+        }
+
+        @Override
+        public Result[] call() {
+            Map<String, Result> found = new LinkedHashMap<>();
+            try {
+                if (qrCodeReader != null) {
+                    merge(decodeMultiple(qrCodeReader), found);
+                }
+                merge(decodeMultiple(reader), found);
+            } catch (CancellationException ce) {
+                return NO_RESULTS;
+            } finally {
+                image = null;
+            }
+            return found.values().toArray(new Result[found.size()]);
+        }
+
+        private Result[] decodeMultiple(MultipleBarcodeReader multipleReader) {
+            if (callback.isCancelled()) {
+                return NO_RESULTS;
+            }
+            Result[] results;
+            try {
+                results = multipleReader.decodeMultiple(image, hints);
+            } catch (ReaderException re) {
+                return NO_RESULTS;
+            }
+            if (left == 0 && top == 0) {
+                return results;
+            }
+            Result[] translated = new Result[results.length];
+            for (int i = 0; i < results.length; i++) {
+                translated[i] = translate(results[i], left, top);
+            }
+            return translated;
+        }
+
+        private static Result translate(Result result, int left, int top) {
+            ResultPoint[] points = result.getResultPoints();
+            ResultPoint[] newPoints = null;
+            if (points != null) {
+                newPoints = new ResultPoint[points.length];
+                for (int i = 0; i < points.length; i++) {
+                    ResultPoint point = points[i];
+                    if (point != null) {
+                        newPoints[i] = new ResultPoint(point.getX() + left, point.getY() + top);
+                    }
+                }
+            }
+            Result newResult = new Result(result.getText(), result.getRawBytes(), result.getNumBits(),
+                    newPoints, result.getBarcodeFormat(), result.getTimestamp());
+            newResult.putAllMetadata(result.getResultMetadata());
+            return newResult;
+        }
+    }
+
+    /**
+     * Lets the core multiple barcode readers drive a {@link ReaderChain}.
+     */
+    private static final class ChainReader implements Reader {
+
+        private final ReaderChain readerChain;
+
+        ChainReader(ReaderChain readerChain) {
+            this.readerChain = readerChain;
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image) throws NotFoundException {
+            // Without format statistics every decode is a full pass, whatever the frame
+            Result result = readerChain.decode(image, 0);
+            if (result == null) {
+                throw NotFoundException.getNotFoundInstance();
+            }
+            return result;
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+            return decode(image);
+        }
+
+        @Override
+        public void reset() {
+            // each reader of the chain is reset after use
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A preview frame on its way from the camera to a decoder. Instances are reused; {@code plane} is
+ * {@code null} while the slot is empty.
+ */
+final class PreviewFrame {
+
+    /**
+     * The luminance plane, as delivered by the {@link com.google.zxing.client.android.camera.FrameSource};
+     * see {@link com.google.zxing.client.android.camera.PreviewFrameListener} for the layout.
+     */
+    ByteBuffer plane;
+    int width;
+    int height;
+    int rowStride;
+    int pixelStride;
+    int rotation;
+    long timestamp;
+    int generation;
+    /**
+     * Counts the frames a worker has decoded, so that decisions made every so many frames don't
+     * depend on how often each frame is decoded.
+     */
+    int number;
+    /**
+     * Where the area being decoded lies in the framing rectangle, and at what fraction of the
+     * resolution; readers report points relative to the area, as decoded.
+     */
+    int regionLeft;
+    int regionTop;
+    int regionScale = 1;
+    /**
+     * When decoding the frame should be given up on if a newer frame is waiting, in
+     * {@link System#nanoTime()} terms, or 0 for never; and whether it was.
+     */
+    long deadline;
+    volatile boolean abandoned;
+
+    void set(ByteBuffer plane, int width, int height, int rowStride, int pixelStride, int rotation, long timestamp) {
+        this.plane = plane;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.pixelStride = pixelStride;
+        this.rotation = rotation;
+        this.timestamp = timestamp;
+    }
+
+    void set(PreviewFrame other) {
+        set(other.plane, other.width, other.height, other.rowStride, other.pixelStride, other.rotation,
+                other.timestamp);
+        generation = other.generation;
+        regionLeft = other.regionLeft;
+        regionTop = other.regionTop;
+        regionScale = other.regionScale;
+    }
+
+    void clear() {
+        plane = null;
+    }
+
+    /**
+     * @return {@code true} if the plane is a plain {@code byte[]} from index 0 with no gaps between
+     * pixels, which is read faster through {@link ByteBuffer#array()}.
+     */
+    boolean isPacked() {
+        return plane.hasArray() && plane.arrayOffset() == 0 && pixelStride == 1;
+    }
+
+    /**
+     * @return the index in {@link #plane} of the pixel at column {@code x}, row {@code y}, as
+     * oriented on screen.
+     */
+    int offset(int x, int y) {
+        switch (rotation) {
+            case 90:
+                return (width - 1 - x) * rowStride + y * pixelStride;
+            case 180:
+                return (height - 1 - y) * rowStride + (width - 1 - x) * pixelStride;
+            case 270:
+                return x * rowStride + (height - 1 - y) * pixelStride;
+            default:
+                return y * rowStride + x * pixelStride;
+        }
+    }
+
+    /**
+     * @return the step in {@link #plane} from a pixel to the next one on its right, as oriented on
+     * screen.
+     */
+    int xStride() {
+        switch (rotation) {
+            case 90:
+                return -rowStride;
+            case 180:
+                return -pixelStride;
+            case 270:
+                return rowStride;
+            default:
+                return pixelStride;
+        }
+    }
+
+    /**
+     * @return the step in {@link #plane} from a pixel to the next one below it, as oriented on
+     * screen.
+     */
+    int yStride() {
+        switch (rotation) {
+            case 90:
+                return pixelStride;
+            case 180:
+                return -rowStride;
+            case 270:
+                return -pixelStride;
+            default:
+                return rowStride;
+        }
+    }
+
+}
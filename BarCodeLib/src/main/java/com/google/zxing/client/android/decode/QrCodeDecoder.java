@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.client.android.metrics.LatencyHistogram;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.DecoderResult;
+import com.google.zxing.common.DetectorResult;
+import com.google.zxing.qrcode.decoder.Decoder;
+import com.google.zxing.qrcode.decoder.QRCodeDecoderMetaData;
+import com.google.zxing.qrcode.detector.Detector;
+import com.google.zxing.qrcode.detector.FinderPattern;
+import com.google.zxing.qrcode.detector.FinderPatternInfo;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Decodes QR codes only, for scans which want nothing else, without going through a
+ * {@link ReaderChain}. The detector and decoder are driven directly, with hints built once.
+ * <p>
+ * The finder patterns of the last QR code found are kept, together with the crop they were found
+ * in. The next frame decoded on the same crop first samples the code at those patterns, skipping
+ * the finder pattern search over the whole black matrix; a QR code held still moves less than a
+ * module from one frame to the next, and if it did move further its error correction fails and
+ * the full search runs after all. Every few frames the patterns are forgotten, so that the whole
+ * framing rectangle gets searched again. One per worker.
+ */
+final class QrCodeDecoder {
+
+    /**
+     * Frames decoded on the crop of the tracked finder patterns before they are forgotten.
+     */
+    private static final int MAX_TRACKED_FRAMES = 8;
+
+    private final Decoder decoder = new Decoder();
+    private final Map<DecodeHintType, Object> hints;
+    private final CancellableResultPointCallback callback;
+    private final LatencyHistogram timing;
+    private final LatencyHistogram trackedTiming;
+    private FinderPatternInfo trackedPatterns;
+    private final Rect trackedRect = new Rect();
+    private final Rect trackedCrop = new Rect();
+    private int trackedScale;
+    private int trackedFrames;
+
+    /**
+     * @param hints    The hints for the detector and decoder; the result point callback should be
+     *                 {@code callback}.
+     * @param callback Tells whether the frame being decoded has been cancelled.
+     * @param metrics  Receives the time taken by each decode, with and without the finder pattern
+     *                 search.
+     */
+    QrCodeDecoder(Map<DecodeHintType, ?> hints, CancellableResultPointCallback callback, ScanMetricsCollector metrics) {
+        this.hints = new EnumMap<>(DecodeHintType.class);
+        this.hints.putAll(hints);
+        this.hints.remove(DecodeHintType.POSSIBLE_FORMATS);
+        this.callback = callback;
+        timing = metrics.getReaderHistogram(getClass().getSimpleName());
+        trackedTiming = metrics.getReaderHistogram(getClass().getSimpleName() + "Tracked");
+    }
+
+    /**
+     * The black matrix is always needed.
+     */
+    boolean needsBlackMatrix() {
+        return true;
+    }
+
+    /**
+     * @param framingRect The framing rectangle, in preview coordinates.
+     * @return the crop, in preview coordinates, the finder patterns of the last QR code were found
+     * in, or {@code null} if there are none to try or it is time for a full search.
+     */
+    Rect getTrackedCrop(Rect framingRect) {
+        if (trackedPatterns == null) {
+            return null;
+        }
+        if (!framingRect.equals(trackedRect) || ++trackedFrames > MAX_TRACKED_FRAMES) {
+            trackedPatterns = null;
+            return null;
+        }
+        return trackedCrop;
+    }
+
+    /**
+     * @return the resolution {@link #getTrackedCrop(Rect)} is to be decoded at, as in
+     * {@link PreviewFrame#regionScale}.
+     */
+    int getTrackedScale() {
+        return trackedScale;
+    }
+
+    /**
+     * @param bitmap      The luminance of {@code crop}.
+     * @param framingRect The framing rectangle, in preview coordinates.
+     * @param crop        The part of the framing rectangle decoded, in preview coordinates.
+     * @param scale       The resolution {@code crop} was copied at, as in
+     *                    {@link PreviewFrame#regionScale}.
+     * @return the QR code found, or {@code null} if there is none or the frame was cancelled.
+     */
+    Result decode(BinaryBitmap bitmap, Rect framingRect, Rect crop, int scale) {
+        if (callback.isCancelled()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            BitMatrix matrix = bitmap.getBlackMatrix();
+            if (trackedPatterns != null && scale == trackedScale && crop.equals(trackedCrop)) {
+                try {
+                    DetectorResult detectorResult = new TrackingDetector(matrix).detect(trackedPatterns);
+                    Result result = decode(detectorResult, framingRect, crop, scale);
+                    trackedTiming.record(System.nanoTime() - start);
+                    return result;
+                } catch (ReaderException re) {
+                    // moved, or gone; search the whole crop
+                }
+            }
+            trackedPatterns = null;
+            if (callback.isCancelled()) {
+                return null;
+            }
+            DetectorResult detectorResult = new Detector(matrix).detect(hints);
+            Result result = decode(detectorResult, framingRect, crop, scale);
+            timing.record(System.nanoTime() - start);
+            return result;
+        } catch (ReaderException re) {
+            timing.record(System.nanoTime() - start);
+            return null;
+        } catch (CancellationException ce) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the sampled grid, keeps its finder patterns for the next frame, and builds the result
+     * as {@link com.google.zxing.qrcode.QRCodeReader} would.
+     */
+    private Result decode(DetectorResult detectorResult, Rect framingRect, Rect crop, int scale)
+            throws ReaderException {
+        if (callback.isCancelled()) {
+            throw new CancellationException();
+        }
+        DecoderResult decoderResult = decoder.decode(detectorResult.getBits(), hints);
+        ResultPoint[] points = detectorResult.getPoints();
+        track(points, framingRect, crop, scale);
+
+        // If the code was mirrored: swap the bottom-left and the top-right points.
+        if (decoderResult.getOther() instanceof QRCodeDecoderMetaData) {
+            ((QRCodeDecoderMetaData) decoderResult.getOther()).applyMirroredCorrection(points);
+        }
+        Result result = new Result(decoderResult.getText(), decoderResult.getRawBytes(), points,
+                BarcodeFormat.QR_CODE);
+        List<byte[]> byteSegments = decoderResult.getByteSegments();
+        if (byteSegments != null) {
+            result.putMetadata(ResultMetadataType.BYTE_SEGMENTS, byteSegments);
+        }
+        String ecLevel = decoderResult.getECLevel();
+        if (ecLevel != null) {
+            result.putMetadata(ResultMetadataType.ERROR_CORRECTION_LEVEL, ecLevel);
+        }
+        if (decoderResult.hasStructuredAppend()) {
+            result.putMetadata(ResultMetadataType.STRUCTURED_APPEND_SEQUENCE,
+                    decoderResult.getStructuredAppendSequenceNumber());
+            result.putMetadata(ResultMetadataType.STRUCTURED_APPEND_PARITY,
+                    decoderResult.getStructuredAppendParity());
+        }
+        return result;
+    }
+
+    /**
+     * Keeps the finder patterns, which the detector puts first among the points, bottom left, top
+     * left and top right.
+     */
+    private void track(ResultPoint[] points, Rect framingRect, Rect crop, int scale) {
+        if (points.length < 3 || !(points[0] instanceof FinderPattern) ||
+                !(points[1] instanceof FinderPattern) || !(points[2] instanceof FinderPattern)) {
+            trackedPatterns = null;
+            return;
+        }
+        if (trackedPatterns == null) {
+            trackedFrames = 0;
+        }
+        trackedPatterns = new FinderPatternInfo(new FinderPattern[] {
+                (FinderPattern) points[0], (FinderPattern) points[1], (FinderPattern) points[2]});
+        trackedRect.set(framingRect);
+        trackedCrop.set(crop);
+        trackedScale = scale;
+    }
+
+    /**
+     * Samples the code at finder patterns already known, rather than searching for them.
+     */
+    private static final class TrackingDetector extends Detector {
+
+        TrackingDetector(BitMatrix image) {
+            super(image);
+        }
+
+        DetectorResult detect(FinderPatternInfo info) throws NotFoundException, FormatException {
+            return processFinderPatternInfo(info);
+        }
+    }
+
+}
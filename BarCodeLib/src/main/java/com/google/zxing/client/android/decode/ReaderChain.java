@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.ChecksumException;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.aztec.AztecReader;
+import com.google.zxing.client.android.metrics.LatencyHistogram;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.datamatrix.DataMatrixReader;
+import com.google.zxing.maxicode.MaxiCodeReader;
+import com.google.zxing.oned.MultiFormatOneDReader;
+import com.google.zxing.oned.OneDReader;
+import com.google.zxing.pdf417.PDF417Reader;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * The readers for a set of formats, tried one after the other in the same order as
+ * {@link com.google.zxing.MultiFormatReader} would. Unlike it, each reader attempt is timed, and
+ * the remaining readers are skipped as soon as the frame is cancelled. The 1D readers also stop
+ * between rows, as they report no points to be stopped at while a row holds nothing.
+ * <p>
+ * Given {@link FormatStatistics}, the readers are tried most likely format first instead, readers
+ * for formats which have hardly been read lately are skipped, and the 1D reader is narrowed down
+ * to one format if nearly all 1D hits were of it. Every few frames all readers are tried, with all
+ * their formats, so that nothing is shut out for good.
+ */
+final class ReaderChain {
+
+    /**
+     * Share of the chain's recent hits below which a reader is skipped, except on full passes.
+     */
+    private static final float MIN_SHARE = 0.02f;
+
+    private final Reader[] readers;
+    private final List<Set<BarcodeFormat>> readerFormats = new ArrayList<>();
+    private final FormatStatistics statistics;
+    private final int[] order;
+    private final Map<BarcodeFormat, Reader> focusedReaders = new EnumMap<>(BarcodeFormat.class);
+    private int oneDIndex = -1;
+    private int orderVersion = -1;
+    private int narrowedCount;
+    private Reader focusedOneD;
+    private Reader rotatedOneD;
+    private Map<DecodeHintType, Object> rotatedHints;
+    private final LatencyHistogram[] timings;
+    private final Map<DecodeHintType, ?> hints;
+    private final CancellableResultPointCallback callback;
+    private final boolean needsBlackMatrix;
+
+    /**
+     * @param hints      The hints for all readers; {@link DecodeHintType#POSSIBLE_FORMATS} decides
+     *                   which readers there are, and its result point callback should be
+     *                   {@code callback}.
+     * @param callback   Tells whether the frame being decoded has been cancelled.
+     * @param metrics    Receives the time taken by each reader attempt.
+     * @param statistics The formats read lately, or {@code null} to always try every reader in the
+     *                   usual order.
+     */
+    @SuppressWarnings("unchecked")
+    ReaderChain(Map<DecodeHintType, ?> hints,
+                CancellableResultPointCallback callback,
+                ScanMetricsCollector metrics,
+                FormatStatistics statistics) {
+        this.hints = hints;
+        this.callback = callback;
+        this.statistics = statistics;
+        Collection<BarcodeFormat> formats = (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        if (formats != null && formats.isEmpty()) {
+            formats = null;
+        }
+        boolean tryHarder = hints.containsKey(DecodeHintType.TRY_HARDER);
+        boolean oneD = formats == null || DecodeFormatManager.containsOneDFormat(formats);
+        List<Reader> chain = new ArrayList<>();
+        // Put 1D readers upfront in "normal" mode
+        if (oneD && !tryHarder) {
+            addOneDReader(chain, formats);
+        }
+        if (formats == null || formats.contains(BarcodeFormat.QR_CODE)) {
+            add(chain, new QRCodeReader(), BarcodeFormat.QR_CODE);
+        }
+        if (formats == null || formats.contains(BarcodeFormat.DATA_MATRIX)) {
+            add(chain, new DataMatrixReader(), BarcodeFormat.DATA_MATRIX);
+        }
+        if (formats == null || formats.contains(BarcodeFormat.AZTEC)) {
+            add(chain, new AztecReader(), BarcodeFormat.AZTEC);
+        }
+        if (formats == null || formats.contains(BarcodeFormat.PDF_417)) {
+            add(chain, new PDF417Reader(), BarcodeFormat.PDF_417);
+        }
+        if (formats == null || formats.contains(BarcodeFormat.MAXICODE)) {
+            add(chain, new MaxiCodeReader(), BarcodeFormat.MAXICODE);
+        }
+        // At end in "try harder" mode
+        if (oneD && tryHarder) {
+            addOneDReader(chain, formats);
+        }
+        readers = chain.toArray(new Reader[chain.size()]);
+        order = new int[readers.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        narrowedCount = readers.length;
+        timings = new LatencyHistogram[readers.length];
+        boolean anyTwoD = false;
+        for (int i = 0; i < readers.length; i++) {
+            boolean readerOneD = readers[i] instanceof CancellableOneDReader;
+            timings[i] = metrics.getReaderHistogram(readerOneD ?
+                    MultiFormatOneDReader.class.getSimpleName() : readers[i].getClass().getSimpleName());
+            anyTwoD |= !readerOneD;
+        }
+        needsBlackMatrix = anyTwoD;
+    }
+
+    private void add(List<Reader> chain, Reader reader, BarcodeFormat format) {
+        chain.add(reader);
+        readerFormats.add(EnumSet.of(format));
+    }
+
+    private void addOneDReader(List<Reader> chain, Collection<BarcodeFormat> formats) {
+        Set<BarcodeFormat> oneDFormats = EnumSet.noneOf(BarcodeFormat.class);
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            if (DecodeFormatManager.isOneDFormat(format) && (formats == null || formats.contains(format))) {
+                oneDFormats.add(format);
+            }
+        }
+        oneDIndex = chain.size();
+        chain.add(new CancellableOneDReader(hints, callback));
+        readerFormats.add(oneDFormats);
+    }
+
+    /**
+     * @return {@code true} if there is a 1D reader.
+     */
+    boolean hasOneDReader() {
+        return oneDIndex >= 0;
+    }
+
+    /**
+     * @return {@code true} if any of the readers works on the black matrix rather than on rows.
+     */
+    boolean needsBlackMatrix() {
+        return needsBlackMatrix;
+    }
+
+    /**
+     * Tries each reader in turn until one finds a barcode.
+     *
+     * @param frameNumber The number of the frame the bitmap comes from, counted by the worker; all
+     *                    decodes of the same frame make the same full pass decision.
+     * @return the result, or {@code null} if nothing was found or the frame was cancelled.
+     */
+    Result decode(BinaryBitmap bitmap, int frameNumber) {
+        boolean fullPass = true;
+        if (statistics != null) {
+            reorder();
+            fullPass = frameNumber % FormatStatistics.FULL_PASS_INTERVAL == 0;
+        }
+        int count = fullPass ? readers.length : narrowedCount;
+        for (int k = 0; k < count; k++) {
+            if (callback.isCancelled()) {
+                return null;
+            }
+            int i = order[k];
+            Reader reader = !fullPass && i == oneDIndex && focusedOneD != null ? focusedOneD : readers[i];
+            long start = System.nanoTime();
+            try {
+                return reader.decode(bitmap, hints);
+            } catch (ReaderException re) {
+                // continue
+            } catch (CancellationException ce) {
+                return null;
+            } finally {
+                reader.reset();
+                timings[i].record(System.nanoTime() - start);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tries the 1D reader alone on an image turned a quarter turn counterclockwise, as
+     * {@link OneDReader} does when trying harder, and maps the result points back. Points found on
+     * the way are not reported, as they are in the wrong place.
+     *
+     * @return the result, or {@code null} if nothing was found, there is no 1D reader, or the
+     * frame was cancelled.
+     */
+    Result decodeRotated(BinaryBitmap rotated) {
+        if (oneDIndex < 0 || callback.isCancelled()) {
+            return null;
+        }
+        if (rotatedOneD == null) {
+            rotatedHints = new EnumMap<>(DecodeHintType.class);
+            rotatedHints.putAll(hints);
+            rotatedHints.remove(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+            rotatedHints.remove(DecodeHintType.TRY_HARDER);
+            rotatedOneD = new CancellableOneDReader(rotatedHints, callback);
+        }
+        long start = System.nanoTime();
+        try {
+            Result result = rotatedOneD.decode(rotated, rotatedHints);
+            Map<ResultMetadataType, ?> metadata = result.getResultMetadata();
+            int orientation = 270;
+            if (metadata != null && metadata.containsKey(ResultMetadataType.ORIENTATION)) {
+                orientation = (orientation + (Integer) metadata.get(ResultMetadataType.ORIENTATION)) % 360;
+            }
+            result.putMetadata(ResultMetadataType.ORIENTATION, orientation);
+            ResultPoint[] points = result.getResultPoints();
+            if (points != null) {
+                int height = rotated.getHeight();
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = new ResultPoint(height - points[i].getY() - 1, points[i].getX());
+                }
+            }
+            return result;
+        } catch (ReaderException re) {
+            return null;
+        } catch (CancellationException ce) {
+            return null;
+        } finally {
+            rotatedOneD.reset();
+            timings[oneDIndex].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Works out the order of the readers, how many of them to try on frames which are not full
+     * passes, and which reader to try instead of the 1D reader on them, if the statistics changed.
+     */
+    private void reorder() {
+        int version = statistics.getVersion();
+        if (version == orderVersion) {
+            return;
+        }
+        orderVersion = version;
+        float[] scores = new float[readers.length];
+        float total = 0.0f;
+        for (int i = 0; i < readers.length; i++) {
+            scores[i] = statistics.getScore(readerFormats.get(i));
+            total += scores[i];
+        }
+        // Stable, so readers with equal scores stay in the usual order
+        for (int i = 0; i < order.length; i++) {
+            int reader = i;
+            int j = i;
+            for (; j > 0 && scores[order[j - 1]] < scores[reader]; j--) {
+                order[j] = order[j - 1];
+            }
+            order[j] = reader;
+        }
+        narrowedCount = readers.length;
+        if (total >= FormatStatistics.MIN_HISTORY) {
+            while (narrowedCount > 1 && scores[order[narrowedCount - 1]] < MIN_SHARE * total) {
+                narrowedCount--;
+            }
+        }
+        focusedOneD = null;
+        if (oneDIndex >= 0 && readerFormats.get(oneDIndex).size() > 1) {
+            BarcodeFormat dominant = statistics.getDominantFormat(readerFormats.get(oneDIndex));
+            if (dominant != null) {
+                focusedOneD = focusedReaders.get(dominant);
+                if (focusedOneD == null) {
+                    Map<DecodeHintType, Object> focusedHints = new EnumMap<>(DecodeHintType.class);
+                    focusedHints.putAll(hints);
+                    focusedHints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(dominant));
+                    focusedOneD = new CancellableOneDReader(focusedHints, callback);
+                    focusedReaders.put(dominant, focusedOneD);
+                }
+            }
+        }
+    }
+
+    /**
+     * The 1D readers, checking for cancellation before each row. {@link OneDReader} picks the rows,
+     * also rotated in "try harder" mode, and hands each to {@link #decodeRow}.
+     */
+    private static final class CancellableOneDReader extends OneDReader {
+
+        private final MultiFormatOneDReader reader;
+        private final CancellableResultPointCallback callback;
+
+        CancellableOneDReader(Map<DecodeHintType, ?> hints, CancellableResultPointCallback callback) {
+            reader = new MultiFormatOneDReader(hints);
+            this.callback = callback;
+        }
+
+        @Override
+        public Result decodeRow(int rowNumber, BitArray row, Map<DecodeHintType, ?> hints)
+                throws NotFoundException, ChecksumException, FormatException {
+            if (callback.isCancelled()) {
+                throw new CancellationException();
+            }
+            return reader.decodeRow(rowNumber, row, hints);
+        }
+
+        @Override
+        public void reset() {
+            reader.reset();
+        }
+    }
+
+}
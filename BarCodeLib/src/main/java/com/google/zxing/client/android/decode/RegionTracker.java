@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicts where in the framing rectangle a barcode is, from the possible result points readers
+ * reported for the last few frames, so that the next frames can be decoded on that region alone.
+ * Binarization and detection cost grows with the area, so a region a quarter of the framing
+ * rectangle is decoded about four times as fast.
+ * <p>
+ * A region is only predicted while points keep coming in, and every few frames the whole framing
+ * rectangle is decoded anyway, in case a barcode outside the region was missed. Shared by all
+ * workers; point coordinates are relative to the framing rectangle.
+ */
+final class RegionTracker {
+
+    private static final int MAX_POINTS = 16;
+    private static final long POINT_LIFETIME_NANOS = TimeUnit.MILLISECONDS.toNanos(400L);
+    /**
+     * Frames decoded on a predicted region before the whole framing rectangle is decoded again.
+     */
+    private static final int MAX_REGION_FRAMES = 3;
+    /**
+     * A region larger than this fraction of the framing rectangle is not worth predicting.
+     */
+    private static final float MAX_REGION_AREA = 0.6f;
+    /**
+     * Sides are rounded up to a multiple of this, so the decode storage sized for a region can be
+     * reused for the next one.
+     */
+    private static final int REGION_GRANULARITY = 32;
+    private static final int MIN_MARGIN = 24;
+    private static final int MIN_REGION_SIZE = 64;
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final ScanMetricsCollector metrics;
+    private final float[] pointX = new float[MAX_POINTS];
+    private final float[] pointY = new float[MAX_POINTS];
+    private final long[] pointTime = new long[MAX_POINTS];
+    private int nextPoint;
+    private int regionFrames;
+    private long averageFullDecodeNanos;
+
+    RegionTracker(ScanMetricsCollector metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records a possible result point, relative to the framing rectangle.
+     */
+    synchronized void addPoint(float x, float y) {
+        pointX[nextPoint] = x;
+        pointY[nextPoint] = y;
+        pointTime[nextPoint] = System.nanoTime();
+        nextPoint = (nextPoint + 1) % MAX_POINTS;
+    }
+
+    /**
+     * @param framingRect The framing rectangle, in preview coordinates.
+     * @return the region to decode the next frame on, in preview coordinates, or {@code null} to
+     * decode the whole framing rectangle.
+     */
+    synchronized Rect predictRegion(Rect framingRect) {
+        if (regionFrames >= MAX_REGION_FRAMES) {
+            regionFrames = 0;
+            return null;
+        }
+        long now = System.nanoTime();
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        int fresh = 0;
+        for (int i = 0; i < MAX_POINTS; i++) {
+            if (pointTime[i] != 0L && now - pointTime[i] < POINT_LIFETIME_NANOS) {
+                minX = Math.min(minX, pointX[i]);
+                minY = Math.min(minY, pointY[i]);
+                maxX = Math.max(maxX, pointX[i]);
+                maxY = Math.max(maxY, pointY[i]);
+                fresh++;
+            }
+        }
+        if (fresh < 2) {
+            return null;
+        }
+
+        // Finder patterns sit inside the barcode, and 1D points only span a line, so grow the
+        // box by half its larger side in every direction
+        int fullWidth = framingRect.width();
+        int fullHeight = framingRect.height();
+        int margin = (int) (Math.max(maxX - minX, maxY - minY) / 2.0f) + MIN_MARGIN;
+        int width = roundUp(Math.max((int) (maxX - minX) + 2 * margin, MIN_REGION_SIZE), fullWidth);
+        int height = roundUp(Math.max((int) (maxY - minY) + 2 * margin, MIN_REGION_SIZE), fullHeight);
+        if (width * height > MAX_REGION_AREA * fullWidth * fullHeight) {
+            return null;
+        }
+        int left = clamp((int) ((minX + maxX - width) / 2.0f), fullWidth - width);
+        int top = clamp((int) ((minY + maxY - height) / 2.0f), fullHeight - height);
+        regionFrames++;
+        left += framingRect.left;
+        top += framingRect.top;
+        return new Rect(left, top, left + width, top + height);
+    }
+
+    /**
+     * Accounts for a decoded frame. Time saved by a region is estimated against the average time
+     * the whole framing rectangle takes.
+     *
+     * @param region      {@code true} if the frame was decoded on a predicted region.
+     * @param found       {@code true} if a barcode was found.
+     * @param decodeNanos How long decoding took.
+     */
+    void report(boolean region, boolean found, long decodeNanos) {
+        long saved;
+        synchronized (this) {
+            if (!region) {
+                averageFullDecodeNanos = averageFullDecodeNanos == 0L ? decodeNanos :
+                        averageFullDecodeNanos + ((decodeNanos - averageFullDecodeNanos) >> AVERAGE_SHIFT);
+                return;
+            }
+            saved = averageFullDecodeNanos == 0L ? 0L : averageFullDecodeNanos - decodeNanos;
+        }
+        metrics.recordRegionDecode(found, saved);
+    }
+
+    private static int roundUp(int size, int max) {
+        return Math.min((size + REGION_GRANULARITY - 1) / REGION_GRANULARITY * REGION_GRANULARITY, max);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds back reads of 1D barcodes until the same contents have been read from enough frames within
+ * a short window. A check digit, where a 1D format has one at all, catches most but not all
+ * misreads of a noisy or smudged frame, and a misread is rarely repeated exactly. The 2D formats
+ * carry Reed-Solomon error correction, so their reads are accepted the first time.
+ * <p>
+ * The workers go on decoding newer frames while a read is held back, so confirming it only costs
+ * the frame or two it takes to read the barcode again. Shared by all workers.
+ */
+final class ResultConfirmer {
+
+    /**
+     * Time from the first read of a barcode within which the others must follow; long enough for
+     * a still scene, whose frames are only decoded now and then, see {@link SceneChangeDetector}.
+     */
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1000L);
+
+    private final int requiredReads;
+    // Ordered by first read, oldest first
+    private final Map<String, Sighting> sightings = new LinkedHashMap<>();
+
+    /**
+     * @param requiredReads Number of frames a 1D barcode must be read from.
+     */
+    ResultConfirmer(int requiredReads) {
+        this.requiredReads = requiredReads;
+    }
+
+    /**
+     * @return {@code true} if reads of the format are held back until confirmed.
+     */
+    static boolean needsConfirmation(BarcodeFormat format) {
+        return DecodeFormatManager.isOneDFormat(format);
+    }
+
+    /**
+     * Records a read of the result. Workers call this concurrently, once per result of each frame.
+     *
+     * @return {@code true} if the result is confirmed and may be delivered.
+     */
+    synchronized boolean confirm(Result result) {
+        if (!needsConfirmation(result.getBarcodeFormat())) {
+            return true;
+        }
+        long timestamp = System.nanoTime();
+        Iterator<Sighting> iterator = sightings.values().iterator();
+        while (iterator.hasNext() && timestamp - iterator.next().firstRead >= WINDOW_NANOS) {
+            iterator.remove();
+        }
+        String key = result.getBarcodeFormat().name() + ':' + result.getText();
+        Sighting sighting = sightings.get(key);
+        if (sighting == null) {
+            sighting = new Sighting(timestamp);
+            sightings.put(key, sighting);
+        }
+        return ++sighting.reads >= requiredReads;
+    }
+
+    private static final class Sighting {
+
+        private final long firstRead;
+        private int reads;
+
+        Sighting(long firstRead) {
+            this.firstRead = firstRead;
+        }
+    }
+
+}
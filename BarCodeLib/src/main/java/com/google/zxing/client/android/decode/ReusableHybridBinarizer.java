@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * The same local thresholding as {@link HybridBinarizer}, but for a source whose contents change
+ * from frame to frame: the block black points and the {@link BitMatrix} are allocated once and
+ * refilled after each {@link #reset()}. 1D rows still use the global histogram approach.
+ */
+final class ReusableHybridBinarizer extends GlobalHistogramBinarizer {
+
+    // This class uses 5x5 blocks to compute local luminance, where each block is 8x8 pixels.
+    // So this is the smallest dimension in each axis we can accept.
+    private static final int BLOCK_SIZE_POWER = 3;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SIZE_POWER; // ...0100...00
+    private static final int BLOCK_SIZE_MASK = BLOCK_SIZE - 1;   // ...0011...11
+    private static final int MINIMUM_DIMENSION = BLOCK_SIZE * 5;
+    private static final int MIN_DYNAMIC_RANGE = 24;
+
+    private final int subWidth;
+    private final int subHeight;
+    private final int[][] blackPoints;
+    private final BitMatrix reusableMatrix;
+    private BitMatrix matrix;
+
+    ReusableHybridBinarizer(LuminanceSource source) {
+        super(source);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width >= MINIMUM_DIMENSION && height >= MINIMUM_DIMENSION) {
+            subWidth = (width >> BLOCK_SIZE_POWER) + ((width & BLOCK_SIZE_MASK) != 0 ? 1 : 0);
+            subHeight = (height >> BLOCK_SIZE_POWER) + ((height & BLOCK_SIZE_MASK) != 0 ? 1 : 0);
+            blackPoints = new int[subHeight][subWidth];
+            reusableMatrix = new BitMatrix(width, height);
+        } else {
+            subWidth = 0;
+            subHeight = 0;
+            blackPoints = null;
+            reusableMatrix = null;
+        }
+    }
+
+    /**
+     * Forgets the matrix of the previous frame. Must be called whenever the source's contents
+     * change.
+     */
+    void reset() {
+        matrix = null;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        if (matrix != null) {
+            return matrix;
+        }
+        if (reusableMatrix == null) {
+            // If the image is too small, fall back to the global histogram approach.
+            matrix = super.getBlackMatrix();
+            return matrix;
+        }
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        byte[] luminances = source.getMatrix();
+        calculateBlackPoints(luminances, width, height);
+        reusableMatrix.clear();
+        calculateThresholdForBlock(luminances, width, height, reusableMatrix);
+        matrix = reusableMatrix;
+        return matrix;
+    }
+
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new ReusableHybridBinarizer(source);
+    }
+
+    /**
+     * For each block in the image, calculate the average black point using a 5x5 grid
+     * of the blocks around it.
+     */
+    private void calculateThresholdForBlock(byte[] luminances, int width, int height, BitMatrix matrix) {
+        int maxYOffset = height - BLOCK_SIZE;
+        int maxXOffset = width - BLOCK_SIZE;
+        for (int y = 0; y < subHeight; y++) {
+            int yoffset = Math.min(y << BLOCK_SIZE_POWER, maxYOffset);
+            int top = cap(y, subHeight - 3);
+            for (int x = 0; x < subWidth; x++) {
+                int xoffset = Math.min(x << BLOCK_SIZE_POWER, maxXOffset);
+                int left = cap(x, subWidth - 3);
+                int sum = 0;
+                for (int z = -2; z <= 2; z++) {
+                    int[] blackRow = blackPoints[top + z];
+                    sum += blackRow[left - 2] + blackRow[left - 1] + blackRow[left] + blackRow[left + 1] + blackRow[left + 2];
+                }
+                thresholdBlock(luminances, xoffset, yoffset, sum / 25, width, matrix);
+            }
+        }
+    }
+
+    private static int cap(int value, int max) {
+        return value < 2 ? 2 : value > max ? max : value;
+    }
+
+    /**
+     * Applies a single threshold to a block of pixels.
+     */
+    private static void thresholdBlock(byte[] luminances, int xoffset, int yoffset, int threshold,
+                                       int stride, BitMatrix matrix) {
+        for (int y = 0, offset = yoffset * stride + xoffset; y < BLOCK_SIZE; y++, offset += stride) {
+            for (int x = 0; x < BLOCK_SIZE; x++) {
+                // Comparison needs to be <= so that black == 0 pixels are black even if the threshold is 0.
+                if ((luminances[offset + x] & 0xFF) <= threshold) {
+                    matrix.set(xoffset + x, yoffset + y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates a single black point for each block of pixels and saves it away.
+     */
+    private void calculateBlackPoints(byte[] luminances, int width, int height) {
+        int maxYOffset = height - BLOCK_SIZE;
+        int maxXOffset = width - BLOCK_SIZE;
+        for (int y = 0; y < subHeight; y++) {
+            int yoffset = Math.min(y << BLOCK_SIZE_POWER, maxYOffset);
+            for (int x = 0; x < subWidth; x++) {
+                int xoffset = Math.min(x << BLOCK_SIZE_POWER, maxXOffset);
+                int sum = 0;
+                int min = 0xFF;
+                int max = 0;
+                for (int yy = 0, offset = yoffset * width + xoffset; yy < BLOCK_SIZE; yy++, offset += width) {
+                    for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                        int pixel = luminances[offset + xx] & 0xFF;
+                        sum += pixel;
+                        // still looking for good contrast
+                        if (pixel < min) {
+                            min = pixel;
+                        }
+                        if (pixel > max) {
+                            max = pixel;
+                        }
+                    }
+                    // short-circuit min/max tests once dynamic range is met
+                    if (max - min > MIN_DYNAMIC_RANGE) {
+                        // finish the rest of the rows quickly
+                        for (yy++, offset += width; yy < BLOCK_SIZE; yy++, offset += width) {
+                            for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                                sum += luminances[offset + xx] & 0xFF;
+                            }
+                        }
+                    }
+                }
+
+                // The default estimate is the average of the values in the block.
+                int average = sum >> (BLOCK_SIZE_POWER * 2);
+                if (max - min <= MIN_DYNAMIC_RANGE) {
+                    // A low contrast block is assumed to be background; use half the min, unless
+                    // the neighbouring black points say otherwise.
+                    average = min / 2;
+                    if (y > 0 && x > 0) {
+                        int averageNeighborBlackPoint =
+                                (blackPoints[y - 1][x] + (2 * blackPoints[y][x - 1]) + blackPoints[y - 1][x - 1]) / 4;
+                        if (min < averageNeighborBlackPoint) {
+                            average = averageNeighborBlackPoint;
+                        }
+                    }
+                }
+                blackPoints[y][x] = average;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.zxing.client.android.decode;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+/**
+ * A {@link LuminanceSource} over a buffer which is refilled for every frame, rather than a new
+ * source per frame. {@link #getMatrix()} returns the buffer itself, without copying.
+ */
+final class ReusableLuminanceSource extends LuminanceSource {
+
+    private static final int THUMBNAIL_SCALE_FACTOR = 2;
+
+    private final byte[] luminances;
+
+    ReusableLuminanceSource(int width, int height) {
+        super(width, height);
+        luminances = new byte[width * height];
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        System.arraycopy(luminances, y * width, row, 0, width);
+        return row;
+    }
+
+    /**
+     * @return the luminance buffer, {@code getWidth()} bytes per row; callers may also write the
+     * next frame into it.
+     */
+    @Override
+    public byte[] getMatrix() {
+        return luminances;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    /**
+     * @return a view of part of the buffer, without copying; it sees the next frame once this
+     * source is refilled.
+     */
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new PlanarYUVLuminanceSource(luminances, getWidth(), getHeight(), left, top, width, height, false);
+    }
+
+    int[] renderThumbnail() {
+        int width = getThumbnailWidth();
+        int height = getThumbnailHeight();
+        int[] pixels = new int[width * height];
+        int dataWidth = getWidth();
+        int inputOffset = 0;
+        for (int y = 0; y < height; y++) {
+            int outputOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                int grey = luminances[inputOffset + x * THUMBNAIL_SCALE_FACTOR] & 0xff;
+                pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+            }
+            inputOffset += dataWidth * THUMBNAIL_SCALE_FACTOR;
+        }
+        return pixels;
+    }
+
+    int getThumbnailWidth() {
+        return getWidth() / THUMBNAIL_SCALE_FACTOR;
+    }
+
+    int getThumbnailHeight() {
+        return getHeight() / THUMBNAIL_SCALE_FACTOR;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+/**
+ * Decides, frame by frame, whether the framing rectangle is decoded at half resolution first.
+ * The largest preview size is picked for the sake of small and dense barcodes, but a barcode
+ * which fills a good part of the framing rectangle decodes just as well from a quarter of the
+ * pixels, at about a quarter of the cost.
+ * <p>
+ * Half resolution is preferred while barcodes are found that way, or found at full resolution
+ * but big enough that half would have done, and given up while only full resolution reads them.
+ * Every few frames full resolution is tried anyway, for barcodes too small to even be seen at
+ * half. Shared by all workers.
+ */
+final class ScaleSelector {
+
+    /**
+     * A framing rectangle with a shorter side than this is always decoded at full resolution.
+     */
+    private static final int MIN_COARSE_SIDE = 400;
+    /**
+     * A barcode spanning this fraction of the crop's shorter side is taken to be readable at
+     * half resolution too.
+     */
+    private static final float COARSE_EXTENT = 0.3f;
+    private static final int MAX_SCORE = 4;
+    private static final int INITIAL_SCORE = 2;
+    private static final int FULL_PROBE_INTERVAL = 4;
+
+    private int score = INITIAL_SCORE;
+    private int coarseFrames;
+
+    /**
+     * @return {@code true} to decode the frame at half resolution first.
+     */
+    synchronized boolean coarseFirst(Rect framingRect) {
+        if (score <= 0 || Math.min(framingRect.width(), framingRect.height()) < MIN_COARSE_SIDE) {
+            return false;
+        }
+        return ++coarseFrames % FULL_PROBE_INTERVAL != 0;
+    }
+
+    /**
+     * A barcode was found at half resolution.
+     */
+    synchronized void coarseFound() {
+        score = Math.min(score + 1, MAX_SCORE);
+    }
+
+    /**
+     * A barcode was found at full resolution, either straight away or after half resolution
+     * failed.
+     *
+     * @param width  The width of the crop decoded.
+     * @param height The height of the crop decoded.
+     */
+    void fullFound(Result result, int width, int height) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null) {
+            return;
+        }
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (ResultPoint point : points) {
+            if (point != null) {
+                minX = Math.min(minX, point.getX());
+                minY = Math.min(minY, point.getY());
+                maxX = Math.max(maxX, point.getX());
+                maxY = Math.max(maxY, point.getY());
+            }
+        }
+        if (minX > maxX) {
+            return;
+        }
+        boolean large = Math.max(maxX - minX, maxY - minY) >= COARSE_EXTENT * Math.min(width, height);
+        synchronized (this) {
+            score = large ? Math.min(score + 1, MAX_SCORE) : Math.max(score - 1, 0);
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.oned.MultiFormatOneDReader;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Decodes 1D barcodes from a few lines through the framing rectangle, read straight out of the
+ * preview frame, rather than from a copy of the whole rectangle. Horizontal rows are tried from
+ * the middle out, then a few lines at slight angles through the middle, for barcodes held a
+ * little askew. Each line is binarized on its own, against a black point estimated from its own
+ * histogram, as {@link GlobalHistogramBinarizer} does for rows, and handed to the 1D row readers,
+ * also reversed for barcodes upside down. No block thresholds or black matrix are computed, and
+ * lines without enough sharp edges to be part of a barcode are not even binarized.
+ * <p>
+ * If nearly all 1D barcodes read lately were of one format, most frames are only read for that
+ * one, see {@link FormatStatistics}.
+ * <p>
+ * Result points are relative to the framing rectangle. One per worker.
+ */
+final class ScanlineDecoder {
+
+    /**
+     * Slopes of the angled lines, about 5 and 9 degrees either way.
+     */
+    private static final float[] SLOPES = {0.08f, -0.08f, 0.16f, -0.16f};
+    /**
+     * Difference between neighbouring pixels which counts as an edge between a bar and a space.
+     */
+    private static final int MIN_EDGE_STEP = 16;
+    /**
+     * Edges a line needs to possibly cross a barcode; even an EAN-8 has twice as many.
+     */
+    private static final int MIN_EDGES = 20;
+
+    private final MultiFormatOneDReader reader;
+    private final FormatStatistics statistics;
+    private final Collection<BarcodeFormat> formats;
+    private final Map<BarcodeFormat, MultiFormatOneDReader> focusedReaders = new EnumMap<>(BarcodeFormat.class);
+    private int frameCount;
+    private final CancellableResultPointCallback callback;
+    private final Map<DecodeHintType, Object> hints;
+    private final Map<DecodeHintType, Object> reversedHints;
+    private final int rowCount;
+    private LineLuminanceSource line;
+    private GlobalHistogramBinarizer binarizer;
+    private BitArray row;
+
+    /**
+     * @param hints      Hints for the row readers, with the formats wanted.
+     * @param callback   Receives possible result points, and cancels the decode.
+     * @param rowCount   Number of horizontal rows to try.
+     * @param statistics The formats read lately, or {@code null} to always read for all formats.
+     */
+    @SuppressWarnings("unchecked")
+    ScanlineDecoder(Map<DecodeHintType, ?> hints,
+                    CancellableResultPointCallback callback,
+                    int rowCount,
+                    FormatStatistics statistics) {
+        this.hints = new EnumMap<>(DecodeHintType.class);
+        this.hints.putAll(hints);
+        this.hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, callback);
+        // Like OneDReader, only report points for rows the right way up
+        reversedHints = new EnumMap<>(this.hints);
+        reversedHints.remove(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+        reader = new MultiFormatOneDReader(this.hints);
+        this.callback = callback;
+        this.rowCount = rowCount;
+        this.statistics = statistics;
+        formats = (Collection<BarcodeFormat>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+    }
+
+    /**
+     * @param frame The preview frame, whose plane is only read during the call.
+     * @param rect  The framing rectangle, in preview coordinates as oriented on screen.
+     * @return the first barcode found, or {@code null} if there is none or the frame was
+     * cancelled.
+     */
+    Result decode(PreviewFrame frame, Rect rect) {
+        int width = rect.width();
+        int height = rect.height();
+        if (line == null || line.getWidth() != width) {
+            line = new LineLuminanceSource(width);
+            binarizer = new GlobalHistogramBinarizer(line);
+            row = new BitArray(width);
+        }
+        int base = frame.offset(rect.left, rect.top);
+        int xStride = frame.xStride();
+        int yStride = frame.yStride();
+        // own view, whose position is moved for bulk reads
+        ByteBuffer plane = frame.plane.duplicate();
+        plane.clear();
+
+        int middle = height / 2;
+        int rowStep = Math.max(1, height / (rowCount + 1));
+        callback.setFrame(frame);
+        try {
+            MultiFormatOneDReader reader = chooseReader();
+            // The RSS readers collect pairs across rows, which must not mix frames
+            reader.reset();
+            for (int i = 0; i < rowCount + SLOPES.length; i++) {
+                if (callback.isCancelled()) {
+                    return null;
+                }
+                float slope;
+                int y;
+                if (i < rowCount) {
+                    slope = 0.0f;
+                    int stepsAboveOrBelow = (i + 1) / 2;
+                    y = middle + rowStep * ((i & 0x01) == 0 ? stepsAboveOrBelow : -stepsAboveOrBelow);
+                } else {
+                    slope = SLOPES[i - rowCount];
+                    y = middle;
+                }
+                if (y < 0 || y >= height) {
+                    continue;
+                }
+                sampleLine(plane, base, xStride, yStride, width, height, y, slope);
+                if (!hasEdges(width)) {
+                    continue;
+                }
+                try {
+                    row = binarizer.getBlackRow(0, row);
+                } catch (NotFoundException nfe) {
+                    // too little contrast to hold a barcode
+                    continue;
+                }
+                Result result = decodeLine(reader, y, width);
+                if (result != null) {
+                    placePoints(result, width, height, y, slope);
+                    return result;
+                }
+            }
+            return null;
+        } catch (CancellationException ce) {
+            return null;
+        } finally {
+            callback.setFrame(null);
+        }
+    }
+
+    /**
+     * Reads the line through the middle of row {@code y}, at {@code slope}, into {@link #line}.
+     */
+    private void sampleLine(ByteBuffer plane, int base, int xStride, int yStride, int width, int height, int y,
+                            float slope) {
+        byte[] luminances = line.luminances;
+        if (slope == 0.0f && xStride == 1) {
+            plane.position(base + y * yStride);
+            plane.get(luminances, 0, width);
+            return;
+        }
+        float center = width / 2.0f;
+        for (int x = 0; x < width; x++) {
+            int lineY = Math.max(0, Math.min(height - 1, Math.round(y + slope * (x - center))));
+            luminances[x] = plane.get(base + x * xStride + lineY * yStride);
+        }
+    }
+
+    /**
+     * @return {@code true} if the line has enough edges to possibly cross a barcode. An edge
+     * blurred over a few pixels may be counted more than once, which does no harm.
+     */
+    private boolean hasEdges(int width) {
+        byte[] luminances = line.luminances;
+        int edges = 0;
+        int previous = luminances[0] & 0xff;
+        for (int x = 1; x < width; x++) {
+            int value = luminances[x] & 0xff;
+            if (Math.abs(value - previous) >= MIN_EDGE_STEP && ++edges >= MIN_EDGES) {
+                return true;
+            }
+            previous = value;
+        }
+        return false;
+    }
+
+    /**
+     * @return the reader for the dominant format, if there is one and this frame is not a full
+     * pass, or else the reader for all formats.
+     */
+    private MultiFormatOneDReader chooseReader() {
+        if (statistics == null || formats == null || formats.size() < 2 ||
+                ++frameCount % FormatStatistics.FULL_PASS_INTERVAL == 0) {
+            return reader;
+        }
+        BarcodeFormat dominant = statistics.getDominantFormat(formats);
+        if (dominant == null) {
+            return reader;
+        }
+        MultiFormatOneDReader focused = focusedReaders.get(dominant);
+        if (focused == null) {
+            Map<DecodeHintType, Object> focusedHints = new EnumMap<>(hints);
+            focusedHints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(dominant));
+            focused = new MultiFormatOneDReader(focusedHints);
+            focusedReaders.put(dominant, focused);
+        }
+        return focused;
+    }
+
+    private Result decodeLine(MultiFormatOneDReader reader, int y, int width) {
+        try {
+            return reader.decodeRow(y, row, hints);
+        } catch (ReaderException re) {
+            // continue
+        }
+        row.reverse();
+        try {
+            Result result = reader.decodeRow(y, row, reversedHints);
+            result.putMetadata(ResultMetadataType.ORIENTATION, 180);
+            ResultPoint[] points = result.getResultPoints();
+            if (points != null) {
+                for (int i = 0; i < points.length; i++) {
+                    if (points[i] != null) {
+                        points[i] = new ResultPoint(width - points[i].getX() - 1, points[i].getY());
+                    }
+                }
+            }
+            return result;
+        } catch (ReaderException re) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves the result points of an angled line onto it; the readers place them all on row
+     * {@code y}.
+     */
+    private static void placePoints(Result result, int width, int height, int y, float slope) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null || slope == 0.0f) {
+            return;
+        }
+        float center = width / 2.0f;
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] != null) {
+                float x = points[i].getX();
+                points[i] = new ResultPoint(x, Math.max(0.0f, Math.min(height - 1.0f, y + slope * (x - center))));
+            }
+        }
+    }
+
+    /**
+     * A single row of luminance, refilled for every line.
+     */
+    private static final class LineLuminanceSource extends LuminanceSource {
+
+        private final byte[] luminances;
+
+        LineLuminanceSource(int width) {
+            super(width, 1);
+            luminances = new byte[width];
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            if (row == null || row.length < luminances.length) {
+                row = new byte[luminances.length];
+            }
+            System.arraycopy(luminances, 0, row, 0, luminances.length);
+            return row;
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            return luminances;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spots preview frames which show the same as the frames before them, so that a phone left
+ * pointing at something which doesn't decode stops decoding it over and over. A frame's signature
+ * is the average luminance of each cell of a small grid over the framing rectangle, plus the
+ * total difference between neighbouring pixels, which changes as focus comes and goes.
+ * <p>
+ * A frame counts as changed if any cell, or the detail, differs enough from the last frame which
+ * did; changed frames are always decoded. Once the scene has stopped changing, a few more frames
+ * are decoded, and then only one now and then. Only used on the thread frames arrive on.
+ */
+final class SceneChangeDetector {
+
+    /**
+     * Cells per side of the signature grid.
+     */
+    private static final int GRID_SIZE = 8;
+    /**
+     * Samples per side of each cell.
+     */
+    private static final int CELL_SAMPLES = 4;
+    /**
+     * Difference in a cell's average luminance which counts as a change.
+     */
+    private static final int CELL_THRESHOLD = 10;
+    /**
+     * Relative difference in detail which counts as a change.
+     */
+    private static final float DETAIL_THRESHOLD = 0.25f;
+    /**
+     * Smallest difference in detail which counts as a change, one level per sample, so that
+     * sensor noise on a flat scene doesn't.
+     */
+    private static final long MIN_DETAIL_CHANGE = GRID_SIZE * GRID_SIZE * CELL_SAMPLES * CELL_SAMPLES;
+    /**
+     * Frames decoded after the scene stopped changing, before decoding is throttled.
+     */
+    private static final int STATIC_FRAMES = 3;
+    private static final long STATIC_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500L);
+
+    private final int[] signature = new int[GRID_SIZE * GRID_SIZE];
+    private final int[] reference = new int[GRID_SIZE * GRID_SIZE];
+    private long referenceDetail = -1L;
+    private int staticFrames;
+    private long lastDecodedTimestamp;
+    private int generation;
+
+    /**
+     * @param frame      The preview frame.
+     * @param rect       The framing rectangle, in preview coordinates as oriented on screen.
+     * @param generation The scheduler's generation; a new one starts over, as if the scene had
+     *                   just changed.
+     * @return {@code true} if the frame should be decoded.
+     */
+    boolean isWorthDecoding(PreviewFrame frame, Rect rect, int generation) {
+        long timestamp = frame.timestamp;
+        long detail = sign(frame, rect);
+        float detailThreshold = Math.max(DETAIL_THRESHOLD * referenceDetail, MIN_DETAIL_CHANGE);
+        boolean changed = this.generation != generation || referenceDetail < 0L ||
+                Math.abs(detail - referenceDetail) > detailThreshold;
+        for (int i = 0; !changed && i < signature.length; i++) {
+            changed = Math.abs(signature[i] - reference[i]) > CELL_THRESHOLD;
+        }
+        if (changed) {
+            System.arraycopy(signature, 0, reference, 0, signature.length);
+            referenceDetail = detail;
+            this.generation = generation;
+            staticFrames = 0;
+        } else if (++staticFrames > STATIC_FRAMES &&
+                timestamp - lastDecodedTimestamp < STATIC_INTERVAL_NANOS) {
+            return false;
+        }
+        lastDecodedTimestamp = timestamp;
+        return true;
+    }
+
+    /**
+     * Fills {@link #signature} with the average luminance of each cell.
+     *
+     * @return the total difference between sampled pixels and their right-hand neighbours.
+     */
+    private long sign(PreviewFrame frame, Rect rect) {
+        ByteBuffer plane = frame.plane;
+        int base = frame.offset(rect.left, rect.top);
+        int xStride = frame.xStride();
+        int yStride = frame.yStride();
+        int samples = GRID_SIZE * CELL_SAMPLES;
+        int xStep = Math.max(1, (rect.width() - 1) / samples);
+        int yStep = Math.max(1, (rect.height() - 1) / samples);
+        long detail = 0L;
+        for (int cellY = 0; cellY < GRID_SIZE; cellY++) {
+            for (int cellX = 0; cellX < GRID_SIZE; cellX++) {
+                int sum = 0;
+                for (int y = cellY * CELL_SAMPLES; y < (cellY + 1) * CELL_SAMPLES; y++) {
+                    int rowOffset = base + Math.min(y * yStep, rect.height() - 1) * yStride;
+                    for (int x = cellX * CELL_SAMPLES; x < (cellX + 1) * CELL_SAMPLES; x++) {
+                        int offset = rowOffset + Math.min(x * xStep, rect.width() - 2) * xStride;
+                        int value = plane.get(offset) & 0xff;
+                        sum += value;
+                        detail += Math.abs((plane.get(offset + xStride) & 0xff) - value);
+                    }
+                }
+                signature[cellY * GRID_SIZE + cellX] = sum / (CELL_SAMPLES * CELL_SAMPLES);
+            }
+        }
+        return detail;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+/**
+ * Picks which of the costlier ways of decoding a frame, if any, a frame which the normal pass
+ * missed gets as well. At most one is tried per frame, so that a frame never costs more than about
+ * two passes; over consecutive frames they take turns.
+ * <p>
+ * Turns are handed out in proportion to weights, by keeping a credit per slot and giving the turn
+ * to the slot with the most. Every variant starts out with the same weight as a frame without one,
+ * and a variant which has been finding barcodes gets a larger weight, so that, say, a site with
+ * only light-on-dark labels soon has nearly every frame decoded inverted as well. One per worker.
+ */
+final class VariantScheduler {
+
+    enum Variant {
+        /** The luminance inverted, for barcodes printed light on dark. */
+        INVERTED,
+        /** The luminance turned a quarter turn, for 1D barcodes held upright. */
+        ROTATED,
+        /** All readers with {@link com.google.zxing.DecodeHintType#TRY_HARDER}. */
+        TRY_HARDER
+    }
+
+    /**
+     * Extra weight of a variant which finds a barcode every time it is tried.
+     */
+    private static final float HIT_WEIGHT = 8.0f;
+    /**
+     * Weight of the newest try in a variant's hit rate is 1 / HIT_RATE_WINDOW.
+     */
+    private static final float HIT_RATE_WINDOW = 8.0f;
+
+    private final Variant[] variants;
+    private final float[] credits;
+    private final float[] hitRates;
+
+    /**
+     * @param rotated   {@code true} if the rotated variant applies, because 1D formats are wanted.
+     * @param tryHarder {@code true} if the harder variant applies, because the readers don't
+     *                  already try harder.
+     */
+    VariantScheduler(boolean rotated, boolean tryHarder) {
+        int count = 1 + (rotated ? 1 : 0) + (tryHarder ? 1 : 0);
+        variants = new Variant[count];
+        int i = 0;
+        variants[i++] = Variant.INVERTED;
+        if (rotated) {
+            variants[i++] = Variant.ROTATED;
+        }
+        if (tryHarder) {
+            variants[i] = Variant.TRY_HARDER;
+        }
+        // slot 0 is the frame without a variant
+        credits = new float[count + 1];
+        hitRates = new float[count];
+    }
+
+    /**
+     * @return the variant to try on a frame the normal pass missed, or {@code null} for none.
+     */
+    Variant next() {
+        int best = 0;
+        float total = 0.0f;
+        for (int slot = 0; slot < credits.length; slot++) {
+            float weight = slot == 0 ? 1.0f : 1.0f + HIT_WEIGHT * hitRates[slot - 1];
+            credits[slot] += weight;
+            total += weight;
+            if (credits[slot] > credits[best]) {
+                best = slot;
+            }
+        }
+        credits[best] -= total;
+        return best == 0 ? null : variants[best - 1];
+    }
+
+    /**
+     * Accounts for a variant having been tried to the end.
+     */
+    void report(Variant variant, boolean found) {
+        for (int i = 0; i < variants.length; i++) {
+            if (variants[i] == variant) {
+                hitRates[i] += ((found ? 1.0f : 0.0f) - hitRates[i]) / HIT_RATE_WINDOW;
+                return;
+            }
+        }
+    }
+
+}
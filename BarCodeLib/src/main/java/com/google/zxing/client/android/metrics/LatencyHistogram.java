@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in logarithmic buckets, in microseconds. Each power of two is split into
+ * {@link #SUB_BUCKETS} linear buckets, so percentiles are accurate to within 1 / SUB_BUCKETS.
+ * <p>
+ * Recording is a couple of atomic increments and never blocks, so decode threads can call it
+ * for every stage of every frame. A snapshot taken while samples are being recorded may be off
+ * by those few samples.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param nanos A duration, in nanoseconds; negative durations count as zero.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0L, nanos / 1000L);
+        buckets.incrementAndGet(bucketFor(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0L);
+        }
+        count.set(0L);
+        totalMicros.set(0L);
+        maxMicros.set(0L);
+    }
+
+    ScanMetrics.Timing snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long max = maxMicros.get();
+        long samples = count.get();
+        long mean = samples == 0L ? 0L : totalMicros.get() / samples;
+        return new ScanMetrics.Timing(total, mean,
+                percentile(counts, total, 0.50, max),
+                percentile(counts, total, 0.95, max),
+                percentile(counts, total, 0.99, max),
+                max);
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given fraction of samples, or the largest
+     * sample if that is smaller.
+     */
+    private static long percentile(long[] counts, long total, double fraction, long max) {
+        if (total == 0L) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i + 1) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketFor(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int mantissa = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket >= BUCKET_COUNT) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+    }
+
+}
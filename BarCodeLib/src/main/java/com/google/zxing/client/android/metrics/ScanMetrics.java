@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the decode pipeline's counters and stage timings, as returned by
+ * {@link ScanMetricsCollector#snapshot()}.
+ */
+public final class ScanMetrics {
+
+    /**
+     * The stages of decoding one preview frame.
+     */
+    public enum Stage {
+        /** From the camera delivering a frame to a worker starting on it. */
+        FRAME_WAIT,
+        /** Sampling the frame's contrast and sharpness, to turn away frames not worth decoding. */
+        QUALITY_CHECK,
+        /** Cropping, and rotating for portrait, the luminance out of the frame. */
+        PREPARE,
+        /** Computing the black matrix shared by the 2D readers. */
+        BINARIZE,
+        /** Decoding a frame the normal pass missed once more, inverted, rotated or trying harder. */
+        VARIANT,
+        /** Everything a worker does with one frame, readers included. */
+        DECODE,
+        /** Rendering the thumbnail of a frame with a result. */
+        THUMBNAIL,
+        /** From a worker posting a result to the main thread handling it. */
+        DELIVERY,
+        /** From the scan screen starting to the first preview frame reaching the pipeline. */
+        FIRST_FRAME,
+        /** From the scan screen starting to the first barcode decoded. */
+        FIRST_DECODE
+    }
+
+    /**
+     * Summary of one histogram. All durations are in microseconds, and percentiles are estimated
+     * from the histogram's buckets.
+     */
+    public static final class Timing {
+
+        private final long count;
+        private final long meanMicros;
+        private final long p50Micros;
+        private final long p95Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        Timing(long count, long meanMicros, long p50Micros, long p95Micros, long p99Micros, long maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p95Micros = p95Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMicros() {
+            return meanMicros;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP95Micros() {
+            return p95Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " mean=" + meanMicros + "us p50=" + p50Micros + "us p95=" + p95Micros +
+                    "us p99=" + p99Micros + "us max=" + maxMicros + "us";
+        }
+    }
+
+    private final long successCount;
+    private final long failureCount;
+    private final long cancelledCount;
+    private final long droppedFrameCount;
+    private final long duplicateCount;
+    private final long rejectedCount;
+    private final long unchangedFrameCount;
+    private final long abandonedCount;
+    private final long unconfirmedCount;
+    private final long regionDecodeCount;
+    private final long regionHitCount;
+    private final long regionSavedNanos;
+    private final Map<Stage, Timing> stageTimings;
+    private final Map<String, Timing> readerTimings;
+
+    ScanMetrics(long successCount,
+                long failureCount,
+                long cancelledCount,
+                long droppedFrameCount,
+                long duplicateCount,
+                long rejectedCount,
+                long unchangedFrameCount,
+                long abandonedCount,
+                long unconfirmedCount,
+                long regionDecodeCount,
+                long regionHitCount,
+                long regionSavedNanos,
+                EnumMap<Stage, Timing> stageTimings,
+                Map<String, Timing> readerTimings) {
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+        this.cancelledCount = cancelledCount;
+        this.droppedFrameCount = droppedFrameCount;
+        this.duplicateCount = duplicateCount;
+        this.rejectedCount = rejectedCount;
+        this.unchangedFrameCount = unchangedFrameCount;
+        this.abandonedCount = abandonedCount;
+        this.unconfirmedCount = unconfirmedCount;
+        this.regionDecodeCount = regionDecodeCount;
+        this.regionHitCount = regionHitCount;
+        this.regionSavedNanos = regionSavedNanos;
+        this.stageTimings = Collections.unmodifiableMap(stageTimings);
+        this.readerTimings = Collections.unmodifiableMap(readerTimings);
+    }
+
+    /**
+     * @return number of frames which produced a delivered result.
+     */
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * @return number of frames in which no reader found anything.
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return number of frames abandoned part way, because decoding was stopped or another frame
+     * produced the result first.
+     */
+    public long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * @return number of frames replaced by a newer one before any worker got to them.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * @return number of results dropped in continuous mode because the same barcode was just read.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return number of frames turned away without decoding, as too blurry or without contrast.
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return number of frames handed back to the camera undecoded, because the scene had not
+     * changed since frames which were decoded.
+     */
+    public long getUnchangedFrameCount() {
+        return unchangedFrameCount;
+    }
+
+    /**
+     * @return number of frames given up on part way, because they ran out of their time budget
+     * while a newer frame was waiting.
+     */
+    public long getAbandonedCount() {
+        return abandonedCount;
+    }
+
+    /**
+     * @return number of frames whose 1D barcodes were held back, because they had not yet been
+     * read from enough frames to rule out a misread.
+     */
+    public long getUnconfirmedCount() {
+        return unconfirmedCount;
+    }
+
+    /**
+     * @return fraction of the frames decoding was started on which were given up on for running
+     * out of their time budget.
+     */
+    public float getAbandonmentRate() {
+        long started = successCount + failureCount + cancelledCount + duplicateCount + abandonedCount +
+                unconfirmedCount;
+        return started == 0L ? 0.0f : (float) abandonedCount / started;
+    }
+
+    /**
+     * @return number of frames decoded on a region predicted from earlier result points, rather
+     * than on the whole framing rectangle.
+     */
+    public long getRegionDecodeCount() {
+        return regionDecodeCount;
+    }
+
+    /**
+     * @return fraction of {@link #getRegionDecodeCount()} frames in which a barcode was found.
+     */
+    public float getRegionHitRate() {
+        return regionDecodeCount == 0L ? 0.0f : (float) regionHitCount / regionDecodeCount;
+    }
+
+    /**
+     * @return estimated decode time saved by predicted regions, against the average time the whole
+     * framing rectangle takes.
+     */
+    public long getRegionTimeSavedMillis() {
+        return regionSavedNanos / 1000000L;
+    }
+
+    public Timing getTiming(Stage stage) {
+        return stageTimings.get(stage);
+    }
+
+    /**
+     * @return the time taken by each reader attempt, by reader name, in the order the readers
+     * were first used.
+     */
+    public Map<String, Timing> getReaderTimings() {
+        return readerTimings;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(256);
+        result.append("success=").append(successCount)
+                .append(" failure=").append(failureCount)
+                .append(" cancelled=").append(cancelledCount)
+                .append(" dropped=").append(droppedFrameCount)
+                .append(" duplicates=").append(duplicateCount)
+                .append(" rejected=").append(rejectedCount)
+                .append(" unchanged=").append(unchangedFrameCount)
+                .append(" abandoned=").append(abandonedCount)
+                .append(" unconfirmed=").append(unconfirmedCount)
+                .append(" regions=").append(regionDecodeCount)
+                .append(" regionHitRate=").append(getRegionHitRate())
+                .append(" regionSaved=").append(getRegionTimeSavedMillis()).append("ms");
+        for (Map.Entry<Stage, Timing> entry : stageTimings.entrySet()) {
+            result.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        for (Map.Entry<String, Timing> entry : readerTimings.entrySet()) {
+            result.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the decode pipeline records its counters and stage timings. Recording never blocks;
+ * building a {@link ScanMetrics} snapshot is left to whoever reads them.
+ */
+public final class ScanMetricsCollector {
+
+    private final LatencyHistogram[] stageHistograms = new LatencyHistogram[ScanMetrics.Stage.values().length];
+    private final Map<String, LatencyHistogram> readerHistograms = new LinkedHashMap<>();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong unchangedFrames = new AtomicLong();
+    private final AtomicLong abandonments = new AtomicLong();
+    private final AtomicLong unconfirmedResults = new AtomicLong();
+    private final AtomicLong regionDecodes = new AtomicLong();
+    private final AtomicLong regionHits = new AtomicLong();
+    private final AtomicLong regionSavedNanos = new AtomicLong();
+    // When the scan screen started, until its first frame and first decode are recorded
+    private final AtomicLong firstFrameStart = new AtomicLong();
+    private final AtomicLong firstDecodeStart = new AtomicLong();
+
+    public ScanMetricsCollector() {
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(ScanMetrics.Stage stage, long nanos) {
+        stageHistograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Starts timing {@link ScanMetrics.Stage#FIRST_FRAME} and {@link ScanMetrics.Stage#FIRST_DECODE}
+     * afresh, for a scan screen starting now.
+     */
+    public void markStartup() {
+        long now = System.nanoTime();
+        firstFrameStart.set(now);
+        firstDecodeStart.set(now);
+    }
+
+    /**
+     * Records {@link ScanMetrics.Stage#FIRST_FRAME} if this is the first frame since
+     * {@link #markStartup()}; cheap enough to call for every frame.
+     *
+     * @param timestamp The {@link System#nanoTime()} at which the frame arrived.
+     */
+    public void recordFrameArrived(long timestamp) {
+        long start = firstFrameStart.get();
+        if (start != 0L && firstFrameStart.compareAndSet(start, 0L)) {
+            record(ScanMetrics.Stage.FIRST_FRAME, timestamp - start);
+        }
+    }
+
+    /**
+     * Records {@link ScanMetrics.Stage#FIRST_DECODE} if this is the first barcode decoded since
+     * {@link #markStartup()}.
+     */
+    public void recordDecodeDelivered() {
+        long start = firstDecodeStart.get();
+        if (start != 0L && firstDecodeStart.compareAndSet(start, 0L)) {
+            record(ScanMetrics.Stage.FIRST_DECODE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Looks up, or creates, the histogram for attempts by one reader. Readers are set up once per
+     * worker, so callers should keep the histogram rather than look it up per frame.
+     *
+     * @param reader The name the reader's timings are reported under.
+     */
+    public synchronized LatencyHistogram getReaderHistogram(String reader) {
+        LatencyHistogram histogram = readerHistograms.get(reader);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            readerHistograms.put(reader, histogram);
+        }
+        return histogram;
+    }
+
+    public void recordSuccess() {
+        successes.incrementAndGet();
+    }
+
+    public void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    public void recordCancelled() {
+        cancellations.incrementAndGet();
+    }
+
+    public void recordDroppedFrame() {
+        droppedFrames.incrementAndGet();
+    }
+
+    public void recordDuplicate() {
+        duplicates.incrementAndGet();
+    }
+
+    public void recordRejected() {
+        rejections.incrementAndGet();
+    }
+
+    public void recordUnchangedFrame() {
+        unchangedFrames.incrementAndGet();
+    }
+
+    public void recordAbandoned() {
+        abandonments.incrementAndGet();
+    }
+
+    public void recordUnconfirmed() {
+        unconfirmedResults.incrementAndGet();
+    }
+
+    /**
+     * @param found      {@code true} if a barcode was found in the region.
+     * @param savedNanos Estimated time saved against decoding the whole framing rectangle; may be
+     *                   negative.
+     */
+    public void recordRegionDecode(boolean found, long savedNanos) {
+        regionDecodes.incrementAndGet();
+        if (found) {
+            regionHits.incrementAndGet();
+        }
+        regionSavedNanos.addAndGet(savedNanos);
+    }
+
+    /**
+     * Clears all counters and histograms. Samples recorded concurrently may survive the reset.
+     */
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : stageHistograms) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : readerHistograms.values()) {
+            histogram.reset();
+        }
+        successes.set(0L);
+        failures.set(0L);
+        cancellations.set(0L);
+        droppedFrames.set(0L);
+        duplicates.set(0L);
+        rejections.set(0L);
+        unchangedFrames.set(0L);
+        abandonments.set(0L);
+        unconfirmedResults.set(0L);
+        regionDecodes.set(0L);
+        regionHits.set(0L);
+        regionSavedNanos.set(0L);
+    }
+
+    public synchronized ScanMetrics snapshot() {
+        EnumMap<ScanMetrics.Stage, ScanMetrics.Timing> stageTimings = new EnumMap<>(ScanMetrics.Stage.class);
+        for (ScanMetrics.Stage stage : ScanMetrics.Stage.values()) {
+            stageTimings.put(stage, stageHistograms[stage.ordinal()].snapshot());
+        }
+        Map<String, ScanMetrics.Timing> readerTimings = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : readerHistograms.entrySet()) {
+            readerTimings.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new ScanMetrics(successes.get(), failures.get(), cancellations.get(), droppedFrames.get(),
+                duplicates.get(), rejections.get(), unchangedFrames.get(), abandonments.get(),
+                unconfirmedResults.get(), regionDecodes.get(), regionHits.get(), regionSavedNanos.get(),
+                stageTimings, readerTimings);
+    }
+
+}
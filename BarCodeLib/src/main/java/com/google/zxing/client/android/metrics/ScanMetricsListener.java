@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.metrics;
+
+/**
+ * Receives snapshots of the scan metrics, on the main thread, while the capture screen is in
+ * front and once more when it is paused.
+ *
+ * @see com.google.zxing.client.android.CaptureActivity#setScanMetricsListener(ScanMetricsListener, long)
+ */
+public interface ScanMetricsListener {
+
+    void onScanMetrics(ScanMetrics metrics);
+
+}
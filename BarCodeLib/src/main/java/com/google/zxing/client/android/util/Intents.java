@@ -84,6 +84,129 @@ public final class Intents {
          */
         public static final String FORMATS = "SCAN_FORMATS";
 
+        /**
+         * @see com.google.zxing.DecodeHintType#CHARACTER_SET
+         */
+        public static final String CHARACTER_SET = "CHARACTER_SET";
+
+        /**
+         * Number of preview buffers the camera cycles through while scanning. Use
+         * {@link android.content.Intent#putExtra(String, int)}. Defaults to 3.
+         */
+        public static final String PREVIEW_BUFFER_COUNT = "SCAN_PREVIEW_BUFFER_COUNT";
+
+        /**
+         * Whether to drive the camera through Camera2 where it does so natively, decoding frames
+         * read in place from a stream of their own. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}. Defaults to {@code true};
+         * {@code false} keeps to Camera1, which is also used on devices without native Camera2.
+         */
+        public static final String USE_CAMERA2 = "SCAN_USE_CAMERA2";
+
+        /**
+         * Maximum number of threads decoding preview frames in parallel. Use
+         * {@link android.content.Intent#putExtra(String, int)}. Defaults to one less than the number
+         * of cores, at most 4. Fewer are used while they can keep up with the camera.
+         */
+        public static final String DECODE_THREADS = "SCAN_DECODE_THREADS";
+
+        /**
+         * If true, the barcode formats are split into 1D, 2D and PDF417 groups which are tried in
+         * parallel on each frame, instead of one after the other. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}.
+         */
+        public static final String PARALLEL_FORMATS = "SCAN_PARALLEL_FORMATS";
+
+        /**
+         * If true, a greyscale thumbnail of the frame a barcode was found in is rendered after the
+         * result has been delivered, and handed to
+         * {@link com.google.zxing.client.android.CaptureActivity#handleDecodeThumbnail}. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}. Defaults to false.
+         */
+        public static final String RESULT_THUMBNAIL = "SCAN_RESULT_THUMBNAIL";
+
+        /**
+         * If true, scanning goes on after a barcode is found, with the camera and decoders kept
+         * running, until the user leaves the scan screen. All barcodes found are then returned at
+         * once, in {@link com.google.zxing.client.android.CaptureActivity#EXTRA_SCAN_RESULTS}. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}.
+         */
+        public static final String CONTINUOUS = "SCAN_CONTINUOUS";
+
+        /**
+         * In {@link #CONTINUOUS} mode, how long a barcode must have been out of sight before it is
+         * reported again, in milliseconds. Use {@link android.content.Intent#putExtra(String, int)}.
+         * Defaults to 3000.
+         */
+        public static final String DUPLICATE_WINDOW_MS = "SCAN_DUPLICATE_WINDOW_MS";
+
+        /**
+         * If true, every barcode in the frame is decoded, rather than just the first one found.
+         * They are returned together in
+         * {@link com.google.zxing.client.android.CaptureActivity#EXTRA_SCAN_RESULTS}. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}.
+         */
+        public static final String MULTIPLE = "SCAN_MULTIPLE";
+
+        /**
+         * If false, every frame is decoded, rather than frames too blurry or without contrast
+         * being turned away first. Use {@link android.content.Intent#putExtra(String, boolean)}.
+         * Defaults to true.
+         */
+        public static final String QUALITY_GATE = "SCAN_QUALITY_GATE";
+
+        /**
+         * If false, every frame is decoded, rather than only now and then while the scene in
+         * front of the camera doesn't change. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}. Defaults to true.
+         */
+        public static final String SKIP_UNCHANGED_FRAMES = "SCAN_SKIP_UNCHANGED_FRAMES";
+
+        /**
+         * If true, the formats read most lately, in this and earlier scans, are tried first and
+         * those hardly ever read mostly not at all, rather than the readers always being tried in
+         * the same order. What was read is kept in the app's shared preferences from one scan to
+         * the next, so a format which goes unread for a while is then slow to be found. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}. Defaults to false.
+         */
+        public static final String ADAPTIVE_FORMAT_ORDER = "SCAN_ADAPTIVE_FORMAT_ORDER";
+
+        /**
+         * If false, frames are only decoded as they are, rather than frames which yield nothing
+         * being decoded once more, in turns, inverted for light on dark barcodes, turned a quarter
+         * turn for upright 1D barcodes, or trying harder. Use
+         * {@link android.content.Intent#putExtra(String, boolean)}. Defaults to true.
+         */
+        public static final String DECODE_VARIANTS = "SCAN_DECODE_VARIANTS";
+
+        /**
+         * When only 1D formats are wanted, as in {@link #PRODUCT_MODE} and {@link #ONE_D_MODE}, the
+         * number of horizontal rows through the framing rectangle which are read straight from
+         * the frame, on top of a few slightly angled ones. Every few frames the whole framing
+         * rectangle is decoded anyway. Use {@link android.content.Intent#putExtra(String, int)}.
+         * Defaults to 9; 0 decodes every frame over the whole framing rectangle.
+         */
+        public static final String SCANLINES = "SCAN_SCANLINES";
+
+        /**
+         * Milliseconds a frame may be decoded for. Once they are up, decoding the frame is given
+         * up on between detection and reading steps, if a newer frame is waiting to be decoded
+         * instead. Use {@link android.content.Intent#putExtra(String, int)}. Defaults to 60 when
+         * only 1D formats are scanned for, as with {@link #PRODUCT_MODE} and {@link #ONE_D_MODE},
+         * 100 when only QR codes are, as with {@link #QR_CODE_MODE}, and 150 otherwise; 0 always
+         * finishes decoding a frame.
+         */
+        public static final String FRAME_BUDGET_MS = "SCAN_FRAME_BUDGET_MS";
+
+        /**
+         * Number of frames a 1D barcode must be read from, with the same contents and within a
+         * second, before it is returned, to guard against misreads the weak check digits of the 1D
+         * formats let through; 2 is usually enough. 2D barcodes are returned on their first read
+         * either way. Use {@link android.content.Intent#putExtra(String, int)}. Defaults to 1, which
+         * returns every barcode on its first read.
+         */
+        public static final String CONFIRM_READS = "SCAN_CONFIRM_READS";
+
         private Scan() {
         }
     }
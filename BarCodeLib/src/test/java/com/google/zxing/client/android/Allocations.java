@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2008 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes a thread allocates on the heap, through the HotSpot extension of
+ * {@link java.lang.management.ThreadMXBean}, for tests of code which is meant not to allocate.
+ */
+public final class Allocations {
+
+    private Allocations() {
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far.
+     */
+    public static long allocatedBytes() {
+        return allocatedBytes(Thread.currentThread());
+    }
+
+    /**
+     * @return the bytes allocated by {@code thread} so far, while it is alive.
+     */
+    public static long allocatedBytes(Thread thread) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(thread.getId());
+    }
+
+}
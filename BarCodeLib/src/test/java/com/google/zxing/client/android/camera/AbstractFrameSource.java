@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FrameSource} which fills frames on a thread of its own, into a ring of buffers handed
+ * back by the listener, as the camera driver does. A frame is only produced while a listener is
+ * set and a buffer is free, so a pipeline which falls behind sees the camera's back pressure.
+ */
+public abstract class AbstractFrameSource implements FrameSource {
+
+    private static final int DEFAULT_BUFFER_COUNT = 3;
+    private static final long IDLE_POLL_MILLIS = 10L;
+
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final int rotation;
+    private final int bufferSize;
+    private final Rect framingRect;
+    private final long frameIntervalNanos;
+    private int bufferCount = DEFAULT_BUFFER_COUNT;
+    private BlockingQueue<ByteBuffer> freeBuffers;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile PreviewFrameListener listener;
+    private volatile long frameCount;
+
+    /**
+     * @param width         The width of the frames, as oriented on screen.
+     * @param height        The height of the frames, as oriented on screen.
+     * @param rowStride     The distance in bytes between rows of the luminance plane, as stored.
+     * @param rotation      0, 90, 180 or 270; see {@link PreviewFrameListener}.
+     * @param bufferSize    The size of each buffer, at least the luminance plane.
+     * @param framingRect   The area of the frames to decode, as oriented on screen.
+     * @param frameInterval Milliseconds between frames, or 0 to deliver each frame as soon as a
+     *                      buffer is free.
+     */
+    AbstractFrameSource(int width,
+                        int height,
+                        int rowStride,
+                        int rotation,
+                        int bufferSize,
+                        Rect framingRect,
+                        long frameInterval) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation >= 360) {
+            throw new IllegalArgumentException("Rotation must be 0, 90, 180 or 270: " + rotation);
+        }
+        int storedWidth = rotation % 180 == 0 ? width : height;
+        int storedHeight = rotation % 180 == 0 ? height : width;
+        if (rowStride < storedWidth || bufferSize < rowStride * (storedHeight - 1) + storedWidth) {
+            throw new IllegalArgumentException("Buffers too small for " + width + 'x' + height + " frames");
+        }
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.rotation = rotation;
+        this.bufferSize = bufferSize;
+        this.framingRect = framingRect;
+        frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(frameInterval);
+    }
+
+    /**
+     * Fills a buffer with the next frame.
+     *
+     * @param data  The buffer, of the size given to the constructor.
+     * @param index The number of frames filled before this one.
+     */
+    abstract void fill(byte[] data, long index);
+
+    /**
+     * Sets how many buffers the frames cycle through. Takes effect the next time the source is
+     * started.
+     *
+     * @param count number of buffers, at least 1.
+     */
+    public synchronized void setBufferCount(int count) {
+        bufferCount = Math.max(1, count);
+    }
+
+    /**
+     * Starts producing frames, while a listener is set.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            freeBuffers.add(ByteBuffer.wrap(new byte[bufferSize]));
+        }
+        running = true;
+        final BlockingQueue<ByteBuffer> buffers = freeBuffers;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce(buffers);
+            }
+        }, getClass().getSimpleName());
+        thread.start();
+    }
+
+    /**
+     * Stops producing frames, and waits for the thread producing them to exit.
+     */
+    public void stop() {
+        Thread theThread;
+        synchronized (this) {
+            theThread = thread;
+            thread = null;
+            running = false;
+        }
+        if (theThread != null) {
+            theThread.interrupt();
+            try {
+                theThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return number of frames delivered to listeners so far.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public void setPreviewFrameListener(PreviewFrameListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void releasePreviewBuffer(ByteBuffer plane) {
+        BlockingQueue<ByteBuffer> buffers;
+        synchronized (this) {
+            buffers = freeBuffers;
+        }
+        if (buffers != null && plane != null && plane.capacity() == bufferSize) {
+            buffers.offer(plane);
+        }
+    }
+
+    @Override
+    public Rect getFramingRectInPreview() {
+        return framingRect;
+    }
+
+    private void produce(BlockingQueue<ByteBuffer> buffers) {
+        long index = 0L;
+        long nextFrame = System.nanoTime();
+        try {
+            while (running) {
+                ByteBuffer plane = buffers.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (plane == null) {
+                    continue;
+                }
+                PreviewFrameListener theListener = listener;
+                if (theListener == null) {
+                    buffers.offer(plane);
+                    Thread.sleep(IDLE_POLL_MILLIS);
+                    continue;
+                }
+                if (frameIntervalNanos > 0L) {
+                    long wait = nextFrame - System.nanoTime();
+                    if (wait > 0L) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                        nextFrame += frameIntervalNanos;
+                    } else {
+                        // fell behind; like the camera, don't try to catch up
+                        nextFrame = System.nanoTime() + frameIntervalNanos;
+                    }
+                }
+                fill(plane.array(), index++);
+                frameCount++;
+                theListener.onPreviewFrame(plane, width, height, rowStride, 1, rotation, System.nanoTime());
+            }
+        } catch (InterruptedException ie) {
+            // stopped
+        }
+    }
+
+}
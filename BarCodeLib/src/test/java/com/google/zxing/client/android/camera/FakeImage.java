@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ImageFormat#YUV_420_888} image as a Camera2 driver may hand it over, with only its Y
+ * plane: a direct buffer whose rows may be padded beyond the width, and whose pixels may be
+ * interleaved with other bytes. Padding and interleaved bytes are filled with {@link #FILLER}, so
+ * that reading one of them shows. Pixel values are given by {@link #luminance(int, int)}.
+ */
+public final class FakeImage extends Image {
+
+    public static final byte FILLER = (byte) 0xEE;
+
+    private final int width;
+    private final int height;
+    private final Plane[] planes;
+    private boolean closed;
+
+    /**
+     * @param width       The width of the image, as stored.
+     * @param height      The height of the image, as stored.
+     * @param rowStride   The distance in bytes between rows of the Y plane.
+     * @param pixelStride The distance in bytes between pixels of a row of the Y plane.
+     */
+    public FakeImage(int width, int height, int rowStride, int pixelStride) {
+        this.width = width;
+        this.height = height;
+        // like a driver's, the plane ends right after the last pixel
+        ByteBuffer buffer = ByteBuffer.allocateDirect((height - 1) * rowStride + (width - 1) * pixelStride + 1);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, FILLER);
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                buffer.put(y * rowStride + x * pixelStride, luminance(x, y));
+            }
+        }
+        planes = new Plane[] {new FakePlane(buffer, rowStride, pixelStride)};
+    }
+
+    /**
+     * @return the value of the pixel at column {@code x}, row {@code y}, as stored; never
+     * {@link #FILLER}.
+     */
+    public static byte luminance(int x, int y) {
+        return (byte) ((x * 7 + y * 13) % 200);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int getFormat() {
+        return ImageFormat.YUV_420_888;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return 0L;
+    }
+
+    // Hidden from the SDK, but abstract in the platform classes the tests run on
+
+    public int getTransform() {
+        return 0;
+    }
+
+    public int getScalingMode() {
+        return 0;
+    }
+
+    @Override
+    public Plane[] getPlanes() {
+        return planes;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private static final class FakePlane extends Plane {
+
+        private final ByteBuffer buffer;
+        private final int rowStride;
+        private final int pixelStride;
+
+        FakePlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            this.buffer = buffer;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+        }
+
+        @Override
+        public int getRowStride() {
+            return rowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+    }
+
+}
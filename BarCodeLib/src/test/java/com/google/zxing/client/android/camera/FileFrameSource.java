@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Rect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back frames recorded to a file, over and over, in place of the camera. The file holds the
+ * frames back to back, each {@code frameLength} bytes starting with its luminance plane, such as
+ * raw NV21 preview frames dumped on a device, or 8-bit grey frames converted from a video. The
+ * file is mapped rather than read, so long recordings need not fit on the heap.
+ */
+public final class FileFrameSource extends AbstractFrameSource {
+
+    private final ByteBuffer frames;
+    private final int frameLength;
+    private final int frameCount;
+    private final int planeLength;
+
+    /**
+     * @param file          The recording.
+     * @param width         The width of the frames, as oriented on screen.
+     * @param height        The height of the frames, as oriented on screen.
+     * @param rowStride     The distance in bytes between rows of the luminance plane, as stored.
+     * @param rotation      0, 90, 180 or 270; see {@link PreviewFrameListener}.
+     * @param frameLength   The size of each frame in the file.
+     * @param framingRect   The area of the frames to decode, as oriented on screen.
+     * @param frameInterval Milliseconds between frames, or 0 to deliver each frame as soon as a
+     *                      buffer is free.
+     * @throws IOException if the file can't be mapped, or holds no whole frame.
+     */
+    public FileFrameSource(File file,
+                           int width,
+                           int height,
+                           int rowStride,
+                           int rotation,
+                           int frameLength,
+                           Rect framingRect,
+                           long frameInterval) throws IOException {
+        super(width, height, rowStride, rotation, frameLength, framingRect, frameInterval);
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            long length = channel.size();
+            // a mapping is limited to 2 GB; longer recordings are cut short
+            frameCount = (int) Math.min(Integer.MAX_VALUE / frameLength, length / frameLength);
+            if (frameCount == 0) {
+                throw new IOException(file + " holds no whole frame of " + frameLength + " bytes");
+            }
+            frames = channel.map(FileChannel.MapMode.READ_ONLY, 0L, (long) frameCount * frameLength);
+        } finally {
+            // the mapping stays valid
+            input.close();
+        }
+        this.frameLength = frameLength;
+        planeLength = rowStride * (rotation % 180 == 0 ? height : width);
+    }
+
+    /**
+     * @return number of frames in the recording.
+     */
+    public int getRecordedFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    void fill(byte[] data, long index) {
+        // only the luminance plane is read by the pipeline
+        frames.position((int) (index % frameCount) * frameLength);
+        frames.get(data, 0, Math.min(planeLength, frameLength));
+    }
+
+}
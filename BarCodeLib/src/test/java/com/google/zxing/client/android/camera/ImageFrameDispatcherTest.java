@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ImageFrameDispatcher} with {@link FakeImage}s.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class ImageFrameDispatcherTest {
+
+    @Test
+    public void passesPlaneAsItIs() {
+        FakeImage image = new FakeImage(640, 480, 704, 2);
+        RecordingListener listener = new RecordingListener();
+        ImageFrameDispatcher dispatcher = new ImageFrameDispatcher(0);
+        dispatcher.setListener(listener);
+
+        dispatcher.dispatch(image);
+
+        assertSame(image.getPlanes()[0].getBuffer(), listener.plane);
+        assertEquals(640, listener.width);
+        assertEquals(480, listener.height);
+        assertEquals(704, listener.rowStride);
+        assertEquals(2, listener.pixelStride);
+        assertEquals(0, listener.rotation);
+    }
+
+    @Test
+    public void turnsSizeWithRotation() {
+        RecordingListener listener = new RecordingListener();
+        ImageFrameDispatcher dispatcher = new ImageFrameDispatcher(90);
+        dispatcher.setListener(listener);
+
+        dispatcher.dispatch(new FakeImage(640, 480, 640, 1));
+
+        assertEquals(480, listener.width);
+        assertEquals(640, listener.height);
+        assertEquals(90, listener.rotation);
+    }
+
+    @Test
+    public void closesImageOnRelease() {
+        FakeImage image = new FakeImage(640, 480, 640, 1);
+        RecordingListener listener = new RecordingListener();
+        ImageFrameDispatcher dispatcher = new ImageFrameDispatcher(0);
+        dispatcher.setListener(listener);
+
+        dispatcher.dispatch(image);
+        assertFalse(image.isClosed());
+        assertEquals(1, dispatcher.getOutstandingCount());
+
+        assertTrue(dispatcher.release(listener.plane));
+        assertTrue(image.isClosed());
+        assertEquals(0, dispatcher.getOutstandingCount());
+        assertFalse(dispatcher.release(listener.plane));
+        assertFalse(dispatcher.release(ByteBuffer.allocateDirect(16)));
+    }
+
+    @Test
+    public void closesImageWithoutListener() {
+        FakeImage image = new FakeImage(640, 480, 640, 1);
+        ImageFrameDispatcher dispatcher = new ImageFrameDispatcher(0);
+
+        dispatcher.dispatch(image);
+
+        assertTrue(image.isClosed());
+        assertEquals(0, dispatcher.getOutstandingCount());
+    }
+
+    private static final class RecordingListener implements PreviewFrameListener {
+
+        ByteBuffer plane;
+        int width;
+        int height;
+        int rowStride;
+        int pixelStride;
+        int rotation;
+
+        @Override
+        public void onPreviewFrame(ByteBuffer plane, int width, int height, int rowStride, int pixelStride,
+                                   int rotation, long timestamp) {
+            this.plane = plane;
+            this.width = width;
+            this.height = height;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+            this.rotation = rotation;
+        }
+    }
+
+}
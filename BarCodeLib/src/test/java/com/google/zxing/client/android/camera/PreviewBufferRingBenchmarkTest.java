@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2008 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import com.google.zxing.client.android.Allocations;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the two ways Camera1 can hand preview frames over, modelled on a JVM as the driver
+ * can't run here. With {@code setOneShotPreviewCallback} the driver copies each frame into a new
+ * array, and the next frame can only follow once the callback has been armed again, so one frame
+ * is in flight at a time. With {@code setPreviewCallbackWithBuffer} the driver fills the buffers
+ * of a ring the decoder hands back, so filling one frame overlaps decoding the one before.
+ * <p>
+ * The driver fills frames as fast as it is let, and the consumer reads every luminance byte of
+ * each, as a cheap stand-in for decoding.
+ */
+public final class PreviewBufferRingBenchmarkTest {
+
+    private static final int FRAME_SIZE = 1920 * 1080 * 3 / 2;
+    private static final int LUMINANCE_SIZE = 1920 * 1080;
+    // CameraManager's default
+    private static final int RING_SIZE = 3;
+    private static final int WARMUP_FRAMES = 50;
+    private static final int FRAMES = 200;
+    private static final int ROUNDS = 3;
+
+    private final byte[] sensor = new byte[FRAME_SIZE];
+
+    @Test
+    public void ringDeliversFramesWithoutAllocating() throws InterruptedException {
+        new Random(1L).nextBytes(sensor);
+        run(false, WARMUP_FRAMES);
+        run(true, WARMUP_FRAMES);
+        Run oneShot = null;
+        Run ring = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            oneShot = best(oneShot, run(false, FRAMES));
+            ring = best(ring, run(true, FRAMES));
+        }
+        System.out.println("Preview frames: one-shot " + oneShot + "; ring of " + RING_SIZE + ' ' + ring);
+
+        assertEquals(FRAMES, oneShot.frames);
+        assertEquals(FRAMES, ring.frames);
+        assertTrue(oneShot.bytesPerFrame() >= FRAME_SIZE);
+        assertTrue("allocated " + ring.bytesPerFrame() + " bytes per frame", ring.bytesPerFrame() < 1024L);
+        assertTrue(ring.nanos < oneShot.nanos);
+    }
+
+    private static Run best(Run best, Run run) {
+        return best == null || run.nanos < best.nanos ? run : best;
+    }
+
+    /**
+     * Delivers {@code frames} frames from a driver thread to the calling thread.
+     *
+     * @param ring {@code true} for a ring of buffers, {@code false} for one-shot callbacks.
+     */
+    private Run run(final boolean ring, final int frames) throws InterruptedException {
+        final BlockingQueue<byte[]> delivered = new ArrayBlockingQueue<>(RING_SIZE);
+        // buffers handed back with a ring; one token per arming with one-shot callbacks
+        final BlockingQueue<byte[]> handedBack = new ArrayBlockingQueue<>(RING_SIZE);
+        if (ring) {
+            for (int i = 0; i < RING_SIZE; i++) {
+                handedBack.add(new byte[FRAME_SIZE]);
+            }
+        } else {
+            handedBack.add(new byte[0]);
+        }
+        final long[] driverBytes = new long[1];
+        Thread driver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long allocated = Allocations.allocatedBytes();
+                try {
+                    for (int i = 0; i < frames; i++) {
+                        byte[] buffer = handedBack.take();
+                        if (!ring) {
+                            buffer = new byte[FRAME_SIZE];
+                        }
+                        System.arraycopy(sensor, 0, buffer, 0, FRAME_SIZE);
+                        delivered.put(buffer);
+                    }
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                driverBytes[0] = Allocations.allocatedBytes() - allocated;
+            }
+        }, "Driver");
+
+        long start = System.nanoTime();
+        driver.start();
+        int checksum = 0;
+        for (int i = 0; i < frames; i++) {
+            byte[] frame = delivered.take();
+            for (int j = 0; j < LUMINANCE_SIZE; j++) {
+                checksum += frame[j];
+            }
+            // back into the ring, or arm the callback for the next frame
+            handedBack.put(ring ? frame : new byte[0]);
+        }
+        driver.join();
+        return new Run(frames, System.nanoTime() - start, driverBytes[0], checksum);
+    }
+
+    private static final class Run {
+
+        final int frames;
+        final long nanos;
+        final long driverBytes;
+        final int checksum;
+
+        Run(int frames, long nanos, long driverBytes, int checksum) {
+            this.frames = frames;
+            this.nanos = nanos;
+            this.driverBytes = driverBytes;
+            this.checksum = checksum;
+        }
+
+        long bytesPerFrame() {
+            return driverBytes / frames;
+        }
+
+        @Override
+        public String toString() {
+            return frames * TimeUnit.SECONDS.toNanos(1L) / nanos + " frames/s, " + bytesPerFrame() +
+                    " bytes per frame (checksum " + checksum + ')';
+        }
+    }
+
+}
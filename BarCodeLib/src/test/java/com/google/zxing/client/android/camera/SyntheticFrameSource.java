@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Rect;
+
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Random;
+
+/**
+ * Makes up frames in place of the camera: a barcode, such as one drawn by a
+ * {@link com.google.zxing.Writer}, dark on a light background in the middle of the framing
+ * rectangle, with fresh sensor-like noise on every frame. Without a barcode the frames show only
+ * the background and noise, for measuring what frames without a barcode cost.
+ * <p>
+ * Frames are stored turned by {@code rotation}, as a sensor mounted that way would deliver them,
+ * and their rows are padded to a multiple of {@link #ROW_ALIGNMENT} bytes, as many camera drivers
+ * do, so that the pipeline's handling of both gets exercised. The noise is seeded, so runs repeat.
+ */
+public final class SyntheticFrameSource extends AbstractFrameSource {
+
+    public static final int ROW_ALIGNMENT = 64;
+
+    private static final int BACKGROUND = 200;
+    private static final int INK = 40;
+    /**
+     * Noise values drawn up front; each frame reads them from a random starting point, which is
+     * noisy enough for a decoder and far cheaper than drawing a value per pixel.
+     */
+    private static final int NOISE_TABLE_SIZE = 1 << 16;
+
+    private final byte[] scene;
+    private final byte[] noiseTable;
+    private final Random random;
+
+    /**
+     * @param width         The width of the frames, as oriented on screen.
+     * @param height        The height of the frames, as oriented on screen.
+     * @param rotation      0, 90, 180 or 270; see {@link PreviewFrameListener}.
+     * @param barcode       The barcode to show, one pixel per bit, or {@code null} for none.
+     * @param noise         The most the noise adds to or takes from a pixel.
+     * @param seed          The seed of the noise.
+     * @param framingRect   The area of the frames to decode, as oriented on screen.
+     * @param frameInterval Milliseconds between frames, or 0 to deliver each frame as soon as a
+     *                      buffer is free.
+     */
+    public SyntheticFrameSource(int width,
+                                int height,
+                                int rotation,
+                                BitMatrix barcode,
+                                int noise,
+                                long seed,
+                                Rect framingRect,
+                                long frameInterval) {
+        this(width, height, align(rotation % 180 == 0 ? width : height), rotation, barcode, noise, seed,
+                framingRect, frameInterval);
+    }
+
+    private SyntheticFrameSource(int width,
+                                 int height,
+                                 int rowStride,
+                                 int rotation,
+                                 BitMatrix barcode,
+                                 int noise,
+                                 long seed,
+                                 Rect framingRect,
+                                 long frameInterval) {
+        super(width, height, rowStride, rotation, rowStride * (rotation % 180 == 0 ? height : width),
+                framingRect, frameInterval);
+        random = new Random(seed);
+        if (noise > 0) {
+            noiseTable = new byte[NOISE_TABLE_SIZE];
+            for (int i = 0; i < NOISE_TABLE_SIZE; i++) {
+                noiseTable[i] = (byte) (random.nextInt(2 * noise + 1) - noise);
+            }
+        } else {
+            noiseTable = null;
+        }
+        scene = new byte[rowStride * (rotation % 180 == 0 ? height : width)];
+        int left = barcode == null ? 0 : framingRect.centerX() - barcode.getWidth() / 2;
+        int top = barcode == null ? 0 : framingRect.centerY() - barcode.getHeight() / 2;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int codeX = x - left;
+                int codeY = y - top;
+                boolean ink = barcode != null && codeX >= 0 && codeX < barcode.getWidth() &&
+                        codeY >= 0 && codeY < barcode.getHeight() && barcode.get(codeX, codeY);
+                scene[offset(x, y, width, height, rowStride, rotation)] = (byte) (ink ? INK : BACKGROUND);
+            }
+        }
+    }
+
+    @Override
+    void fill(byte[] data, long index) {
+        if (noiseTable == null) {
+            System.arraycopy(scene, 0, data, 0, scene.length);
+            return;
+        }
+        int start = random.nextInt(NOISE_TABLE_SIZE);
+        for (int i = 0; i < scene.length; i++) {
+            int value = (scene[i] & 0xff) + noiseTable[(start + i) & (NOISE_TABLE_SIZE - 1)];
+            data[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+    }
+
+    private static int align(int rowLength) {
+        return (rowLength + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+    }
+
+    /**
+     * @return where the pixel at column {@code x}, row {@code y}, as oriented on screen, is stored.
+     */
+    private static int offset(int x, int y, int width, int height, int rowStride, int rotation) {
+        switch (rotation) {
+            case 90:
+                return (width - 1 - x) * rowStride + y;
+            case 180:
+                return (height - 1 - y) * rowStride + width - 1 - x;
+            case 270:
+                return x * rowStride + height - 1 - y;
+            default:
+                return y * rowStride + x;
+        }
+    }
+
+}
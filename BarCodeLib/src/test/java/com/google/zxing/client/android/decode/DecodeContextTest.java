@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+import android.media.Image;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.client.android.Allocations;
+import com.google.zxing.client.android.camera.FakeImage;
+import com.google.zxing.common.BitMatrix;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link DecodeContext} crops Camera2 planes in every layout a driver may choose, and
+ * that it decodes frame after frame into the same luminance array and black matrix, whichever way
+ * the frames are laid out, allocating next to nothing per frame.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class DecodeContextTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final Rect RECT = new Rect(100, 80, 420, 400);
+    private static final int FRAMES = 50;
+
+    @Test
+    public void reusesBuffersForUprightFrames() throws NotFoundException {
+        checkReuse(packedFrames(0), 1);
+    }
+
+    @Test
+    public void reusesBuffersForPortraitFrames() throws NotFoundException {
+        checkReuse(packedFrames(90), 1);
+    }
+
+    @Test
+    public void reusesBuffersAtHalfScale() throws NotFoundException {
+        checkReuse(packedFrames(90), 2);
+    }
+
+    @Test
+    public void reusesBuffersForDirectPlanes() throws NotFoundException {
+        PreviewFrame[] frames = new PreviewFrame[2];
+        Random random = new Random(1L);
+        for (int i = 0; i < frames.length; i++) {
+            byte[] data = new byte[WIDTH * HEIGHT];
+            random.nextBytes(data);
+            ByteBuffer plane = ByteBuffer.allocateDirect(data.length);
+            plane.put(data);
+            frames[i] = new PreviewFrame();
+            frames[i].set(plane, WIDTH, HEIGHT, WIDTH, 1, 0, 0L);
+        }
+        checkReuse(frames, 1);
+    }
+
+    @Test
+    public void copiesPackedPlanes() {
+        checkCopy(WIDTH, 1);
+    }
+
+    @Test
+    public void copiesPlanesWithPaddedRows() {
+        checkCopy(WIDTH + 64, 1);
+    }
+
+    @Test
+    public void copiesPlanesWithInterleavedPixels() {
+        checkCopy(2 * WIDTH, 2);
+    }
+
+    @Test
+    public void copiesPlanesWithInterleavedPixelsAndPaddedRows() {
+        checkCopy(2 * WIDTH + 64, 2);
+    }
+
+    @Test
+    public void reallocatesOnlyWhenTheRectChangesSize() throws NotFoundException {
+        PreviewFrame frame = packedFrames(0)[0];
+        DecodeContext context = new DecodeContext();
+        context.prepare(frame, RECT, 1);
+        byte[] luminances = context.getLuminanceSource().getMatrix();
+
+        Rect moved = new Rect(RECT);
+        moved.offset(8, 8);
+        context.prepare(frame, moved, 1);
+        assertSame(luminances, context.getLuminanceSource().getMatrix());
+
+        Rect smaller = new Rect(RECT.left, RECT.top, RECT.right - 8, RECT.bottom);
+        context.prepare(frame, smaller, 1);
+        assertNotSame(luminances, context.getLuminanceSource().getMatrix());
+    }
+
+    /**
+     * Crops the Y plane of a {@link FakeImage} laid out as given, upright and turned, at full and
+     * half resolution, and checks every pixel against the image's.
+     */
+    private static void checkCopy(int rowStride, int pixelStride) {
+        FakeImage image = new FakeImage(WIDTH, HEIGHT, rowStride, pixelStride);
+        Image.Plane plane = image.getPlanes()[0];
+        for (int rotation : new int[] {0, 90}) {
+            int width = rotation == 0 ? WIDTH : HEIGHT;
+            int height = rotation == 0 ? HEIGHT : WIDTH;
+            PreviewFrame frame = new PreviewFrame();
+            frame.set(plane.getBuffer(), width, height, plane.getRowStride(), plane.getPixelStride(), rotation, 0L);
+            for (int scale = 1; scale <= 2; scale++) {
+                DecodeContext context = new DecodeContext();
+                context.prepare(frame, RECT, scale);
+                byte[] luminances = context.getLuminanceSource().getMatrix();
+                int cropWidth = RECT.width() / scale;
+                int cropHeight = RECT.height() / scale;
+                for (int y = 0; y < cropHeight; y++) {
+                    for (int x = 0; x < cropWidth; x++) {
+                        int shownX = RECT.left + scale * x;
+                        int shownY = RECT.top + scale * y;
+                        int expected = scale == 1 ? shown(shownX, shownY, width, rotation) & 0xff :
+                                ((shown(shownX, shownY, width, rotation) & 0xff) +
+                                        (shown(shownX + 1, shownY, width, rotation) & 0xff) +
+                                        (shown(shownX, shownY + 1, width, rotation) & 0xff) +
+                                        (shown(shownX + 1, shownY + 1, width, rotation) & 0xff) + 2) >> 2;
+                        assertEquals("rotation " + rotation + ", scale " + scale + " at " + x + ',' + y,
+                                expected, luminances[y * cropWidth + x] & 0xff);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the pixel at column {@code x}, row {@code y} as shown on screen, of a {@link FakeImage}
+     * turned {@code rotation} degrees clockwise to be shown {@code width} wide.
+     */
+    private static byte shown(int x, int y, int width, int rotation) {
+        return rotation == 0 ? FakeImage.luminance(x, y) : FakeImage.luminance(y, width - 1 - x);
+    }
+
+    /**
+     * Decodes {@link #FRAMES} frames, taking turns among {@code frames} so that the contents
+     * change, and checks that the luminance and black matrix are the ones of the first frame.
+     */
+    private static void checkReuse(PreviewFrame[] frames, int scale) throws NotFoundException {
+        DecodeContext context = new DecodeContext();
+        BinaryBitmap first = context.prepare(frames[0], RECT, scale);
+        ReusableLuminanceSource source = context.getLuminanceSource();
+        byte[] luminances = source.getMatrix();
+        BitMatrix matrix = first.getBlackMatrix();
+
+        long allocated = Allocations.allocatedBytes();
+        for (int i = 1; i <= FRAMES; i++) {
+            BinaryBitmap bitmap = context.prepare(frames[i % frames.length], RECT, scale);
+            assertSame(source, context.getLuminanceSource());
+            assertSame(luminances, context.getLuminanceSource().getMatrix());
+            assertSame(matrix, bitmap.getBlackMatrix());
+        }
+        long bytesPerFrame = (Allocations.allocatedBytes() - allocated) / FRAMES;
+
+        // just the BinaryBitmap wrapper, and what the assertions cost
+        assertTrue("allocated " + bytesPerFrame + " bytes per frame", bytesPerFrame < 1024L);
+    }
+
+    /**
+     * @return two frames of noise in packed arrays, turned by {@code rotation}.
+     */
+    private static PreviewFrame[] packedFrames(int rotation) {
+        PreviewFrame[] frames = new PreviewFrame[2];
+        Random random = new Random(1L);
+        int width = rotation % 180 == 0 ? WIDTH : HEIGHT;
+        int height = rotation % 180 == 0 ? HEIGHT : WIDTH;
+        for (int i = 0; i < frames.length; i++) {
+            byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+            random.nextBytes(data);
+            frames[i] = new PreviewFrame();
+            frames[i].set(ByteBuffer.wrap(data), width, height, WIDTH, 1, rotation, 0L);
+        }
+        return frames;
+    }
+
+}
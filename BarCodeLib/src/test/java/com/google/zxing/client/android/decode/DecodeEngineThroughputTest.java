@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.content.Intent;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.camera.AbstractFrameSource;
+import com.google.zxing.client.android.camera.FileFrameSource;
+import com.google.zxing.client.android.camera.FrameSource;
+import com.google.zxing.client.android.camera.SyntheticFrameSource;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.client.android.util.Intents;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.oned.EAN13Writer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link DecodeEngine} with frames from {@link SyntheticFrameSource} and
+ * {@link FileFrameSource} instead of a camera: checks that barcodes come out of the whole pipeline,
+ * and measures how many frames a second it gets through.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class DecodeEngineThroughputTest {
+
+    // Portrait, as on a phone; stored landscape
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+    private static final int ROTATION = 90;
+    private static final Rect FRAMING_RECT = new Rect(110, 390, 610, 890);
+    private static final int NOISE = 20;
+    private static final long TIMEOUT_MS = 10000L;
+    private static final long MEASURE_MS = 2000L;
+    private static final String QR_CODE_TEXT = "https://github.com/zxing/zxing";
+    private static final String EAN_13_TEXT = "4006381333931";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private HandlerThread resultThread;
+    private BlockingQueue<Result> results;
+    private Handler resultHandler;
+
+    @Before
+    public void setUp() {
+        resultThread = new HandlerThread("Results");
+        resultThread.start();
+        results = new LinkedBlockingQueue<>();
+        resultHandler = new Handler(resultThread.getLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                if (message.what == R.id.decode_succeeded) {
+                    if (message.obj instanceof Result[]) {
+                        Collections.addAll(results, (Result[]) message.obj);
+                    } else {
+                        results.add((Result) message.obj);
+                    }
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        resultThread.quit();
+    }
+
+    @Test
+    public void decodesQrCodeFromSyntheticFrames() throws WriterException, InterruptedException {
+        Intent intent = new Intent(Intents.Scan.ACTION).putExtra(Intents.Scan.MODE, Intents.Scan.QR_CODE_MODE);
+        BitMatrix code = new QRCodeWriter().encode(QR_CODE_TEXT, BarcodeFormat.QR_CODE, 300, 300);
+        SyntheticFrameSource source =
+                new SyntheticFrameSource(WIDTH, HEIGHT, ROTATION, code, NOISE, 1L, FRAMING_RECT, 0L);
+
+        Result result = scanOnce(source, intent);
+
+        assertEquals(BarcodeFormat.QR_CODE, result.getBarcodeFormat());
+        assertEquals(QR_CODE_TEXT, result.getText());
+    }
+
+    @Test
+    public void decodesEan13ReplayedFromFile() throws IOException, WriterException, InterruptedException {
+        Intent intent = new Intent(Intents.Scan.ACTION).putExtra(Intents.Scan.MODE, Intents.Scan.PRODUCT_MODE);
+        BitMatrix code = new EAN13Writer().encode(EAN_13_TEXT, BarcodeFormat.EAN_13, 380, 160,
+                Collections.singletonMap(EncodeHintType.MARGIN, 10));
+        // Stored as the sensor would, one grey byte a pixel and no row padding
+        int rowStride = HEIGHT;
+        int frameLength = rowStride * WIDTH;
+        File recording = folder.newFile("frames.y");
+        OutputStream out = new FileOutputStream(recording);
+        try {
+            // a few frames of nothing, then the barcode, over and over
+            for (int i = 0; i < 4; i++) {
+                out.write(drawFrame(i < 3 ? null : code, rowStride, frameLength));
+            }
+        } finally {
+            out.close();
+        }
+        FileFrameSource source =
+                new FileFrameSource(recording, WIDTH, HEIGHT, rowStride, ROTATION, frameLength, FRAMING_RECT, 0L);
+        assertEquals(4, source.getRecordedFrameCount());
+
+        Result result = scanOnce(source, intent);
+
+        assertEquals(BarcodeFormat.EAN_13, result.getBarcodeFormat());
+        assertEquals(EAN_13_TEXT, result.getText());
+    }
+
+    @Test
+    public void keepsUpWithFramesWithoutBarcode() throws InterruptedException {
+        // Nothing to find, and no frame skipped as unchanged: every frame costs a full decode
+        Intent intent = new Intent(Intents.Scan.ACTION)
+                .putExtra(Intents.Scan.CONTINUOUS, true)
+                .putExtra(Intents.Scan.SKIP_UNCHANGED_FRAMES, false)
+                .putExtra(Intents.Scan.ADAPTIVE_FORMAT_ORDER, false);
+        SyntheticFrameSource source =
+                new SyntheticFrameSource(WIDTH, HEIGHT, ROTATION, null, NOISE, 1L, FRAMING_RECT, 0L);
+        ScanMetricsCollector metrics = new ScanMetricsCollector();
+        DecodeEngine engine = newEngine(source, intent, metrics);
+
+        source.start();
+        engine.start();
+        Thread.sleep(MEASURE_MS);
+        engine.quitSynchronously(TIMEOUT_MS);
+        source.stop();
+
+        ScanMetrics snapshot = metrics.snapshot();
+        long decoded = snapshot.getSuccessCount() + snapshot.getFailureCount();
+        System.out.println("Frames without barcode: " + source.getFrameCount() + " delivered, " + decoded +
+                " decoded, " + decoded * 1000L / MEASURE_MS + " frames/s; workers: " +
+                DecodeOptions.parse(intent).getWorkerCount() + "; " + snapshot);
+
+        assertTrue(results.isEmpty());
+        assertTrue("decoded " + decoded + " frames", decoded > 0L);
+        // every frame decoded was handed back, or the source would have stalled after its ring
+        assertTrue(source.getFrameCount() > 3L);
+    }
+
+    private Result scanOnce(AbstractFrameSource source, Intent intent) throws InterruptedException {
+        DecodeEngine engine = newEngine(source, intent, new ScanMetricsCollector());
+        source.start();
+        engine.start();
+        try {
+            Result result = results.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("nothing decoded in " + TIMEOUT_MS + " ms", result);
+            return result;
+        } finally {
+            engine.quitSynchronously(TIMEOUT_MS);
+            source.stop();
+        }
+    }
+
+    private DecodeEngine newEngine(FrameSource source, Intent intent, ScanMetricsCollector metrics) {
+        return new DecodeEngine(RuntimeEnvironment.application, source, DecodeOptions.parse(intent),
+                DecodeFormatManager.parseDecodeFormats(intent), null, null, null, metrics, resultHandler);
+    }
+
+    /**
+     * @return a light frame with {@code code}, if any, dark in the middle of the framing rect,
+     * stored turned by {@link #ROTATION}.
+     */
+    private static byte[] drawFrame(BitMatrix code, int rowStride, int frameLength) {
+        byte[] frame = new byte[frameLength];
+        int left = code == null ? 0 : FRAMING_RECT.centerX() - code.getWidth() / 2;
+        int top = code == null ? 0 : FRAMING_RECT.centerY() - code.getHeight() / 2;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int codeX = x - left;
+                int codeY = y - top;
+                boolean ink = code != null && codeX >= 0 && codeX < code.getWidth() &&
+                        codeY >= 0 && codeY < code.getHeight() && code.get(codeX, codeY);
+                // turned 90 degrees: screen columns are stored rows, from the bottom
+                frame[(WIDTH - 1 - x) * rowStride + y] = (byte) (ink ? 40 : 200);
+            }
+        }
+        return frame;
+    }
+
+}
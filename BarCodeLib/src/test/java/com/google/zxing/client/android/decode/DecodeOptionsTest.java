@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.content.Intent;
+
+import com.google.zxing.client.android.util.Intents;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link DecodeOptions#parse(Intent)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class DecodeOptionsTest {
+
+    @Test
+    public void frameBudgetFollowsMode() {
+        assertEquals(60, budget(scan().putExtra(Intents.Scan.MODE, Intents.Scan.PRODUCT_MODE)));
+        assertEquals(60, budget(scan().putExtra(Intents.Scan.MODE, Intents.Scan.ONE_D_MODE)));
+        assertEquals(100, budget(scan().putExtra(Intents.Scan.MODE, Intents.Scan.QR_CODE_MODE)));
+        assertEquals(150, budget(scan().putExtra(Intents.Scan.MODE, Intents.Scan.DATA_MATRIX_MODE)));
+        assertEquals(150, budget(scan()));
+    }
+
+    @Test
+    public void frameBudgetFollowsFormats() {
+        assertEquals(60, budget(scan().putExtra(Intents.Scan.FORMATS, "EAN_13,CODE_128")));
+        assertEquals(100, budget(scan().putExtra(Intents.Scan.FORMATS, "QR_CODE")));
+        assertEquals(150, budget(scan().putExtra(Intents.Scan.FORMATS, "QR_CODE,EAN_13")));
+    }
+
+    @Test
+    public void frameBudgetFollowsFormatsOverMode() {
+        // SCAN_FORMATS overrides SCAN_MODE, so a QR code only scan gets the QR code budget
+        Intent intent = scan()
+                .putExtra(Intents.Scan.MODE, Intents.Scan.PRODUCT_MODE)
+                .putExtra(Intents.Scan.FORMATS, "QR_CODE");
+        assertEquals(100, budget(intent));
+    }
+
+    @Test
+    public void frameBudgetAsRequested() {
+        Intent intent = scan()
+                .putExtra(Intents.Scan.MODE, Intents.Scan.PRODUCT_MODE)
+                .putExtra(Intents.Scan.FRAME_BUDGET_MS, 0);
+        assertEquals(0, budget(intent));
+        assertEquals(150, budget(null));
+    }
+
+    @Test
+    public void adaptiveFormatOrderOnlyWhenAsked() {
+        assertFalse(DecodeOptions.parse(null).isAdaptiveFormatOrder());
+        assertFalse(DecodeOptions.parse(scan()).isAdaptiveFormatOrder());
+        assertTrue(DecodeOptions.parse(scan().putExtra(Intents.Scan.ADAPTIVE_FORMAT_ORDER, true))
+                .isAdaptiveFormatOrder());
+    }
+
+    private static Intent scan() {
+        return new Intent(Intents.Scan.ACTION);
+    }
+
+    private static int budget(Intent intent) {
+        return DecodeOptions.parse(intent).getFrameBudgetMs();
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2008 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.client.android.Allocations;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares what a portrait 1080p frame costs to get ready for the binarizer: turning the whole NV21
+ * frame into a new array and cropping that, as {@code DecodeHandler} used to, against rotating
+ * just the framing rectangle into the storage {@link DecodeContext} keeps.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class PortraitCropBenchmarkTest {
+
+    // As the sensor delivers it: landscape
+    private static final int SENSOR_WIDTH = 1920;
+    private static final int SENSOR_HEIGHT = 1080;
+    private static final Rect FRAMING_RECT = new Rect(200, 620, 880, 1300);
+    private static final int WARMUP_FRAMES = 20;
+    private static final int FRAMES = 50;
+    private static final int ROUNDS = 3;
+
+    @Test
+    public void rotatesOnlyTheFramingRect() {
+        byte[] data = new byte[SENSOR_WIDTH * SENSOR_HEIGHT * 3 / 2];
+        new Random(1L).nextBytes(data);
+        PreviewFrame frame = new PreviewFrame();
+        frame.set(ByteBuffer.wrap(data), SENSOR_HEIGHT, SENSOR_WIDTH, SENSOR_WIDTH, 1, 90, 0L);
+        DecodeContext context = new DecodeContext();
+
+        context.prepare(frame, FRAMING_RECT, 1);
+        assertArrayEquals(rotateWholeFrame(data), context.getLuminanceSource().getMatrix());
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            rotateWholeFrame(data);
+            context.prepare(frame, FRAMING_RECT, 1);
+        }
+        long wholeFrameNanos = Long.MAX_VALUE;
+        long cropNanos = Long.MAX_VALUE;
+        long wholeFrameBytes = 0L;
+        long cropBytes = 0L;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocated = Allocations.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                rotateWholeFrame(data);
+            }
+            wholeFrameNanos = Math.min(wholeFrameNanos, (System.nanoTime() - start) / FRAMES);
+            wholeFrameBytes = (Allocations.allocatedBytes() - allocated) / FRAMES;
+
+            allocated = Allocations.allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                context.prepare(frame, FRAMING_RECT, 1);
+            }
+            cropNanos = Math.min(cropNanos, (System.nanoTime() - start) / FRAMES);
+            cropBytes = (Allocations.allocatedBytes() - allocated) / FRAMES;
+        }
+        System.out.println("Portrait frame: whole frame " + TimeUnit.NANOSECONDS.toMicros(wholeFrameNanos) +
+                " us, " + wholeFrameBytes + " bytes; framing rect " + TimeUnit.NANOSECONDS.toMicros(cropNanos) +
+                " us, " + cropBytes + " bytes");
+
+        assertTrue(wholeFrameBytes >= data.length);
+        // just the BinaryBitmap wrapper
+        assertTrue("allocated " + cropBytes + " bytes per frame", cropBytes < 1024L);
+        assertTrue(cropNanos < wholeFrameNanos);
+    }
+
+    /**
+     * What {@code DecodeHandler} did with each portrait frame before: a new array for the whole
+     * frame, transposed column by column, then a copy of the framing rectangle made by the
+     * binarizer.
+     */
+    private static byte[] rotateWholeFrame(byte[] data) {
+        int width = SENSOR_HEIGHT;
+        int height = SENSOR_WIDTH;
+        byte[] rotatedData = new byte[data.length];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                rotatedData[y * width + width - x - 1] = data[y + x * height];
+            }
+        }
+        return new PlanarYUVLuminanceSource(rotatedData, width, height, FRAMING_RECT.left, FRAMING_RECT.top,
+                FRAMING_RECT.width(), FRAMING_RECT.height(), false).getMatrix();
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.graphics.Rect;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.android.camera.FrameSource;
+import com.google.zxing.client.android.camera.PreviewFrameListener;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes a QR code held still frame after frame, as {@code DecodeHandler} does for QR code only
+ * scans: checks that frames after the first sample the code at the finder patterns already found,
+ * and compares what that costs with searching the whole framing rectangle.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class QrCodeDecoderTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final Rect FRAMING_RECT = new Rect(120, 40, 520, 440);
+    private static final String TEXT = "https://github.com/zxing/zxing";
+    private static final int NOISE = 20;
+    private static final int FRAMES = 180;
+
+    private ScanMetricsCollector metrics;
+    private QrCodeDecoder decoder;
+    private PreviewFrame[] frames;
+
+    @Before
+    public void setUp() throws WriterException {
+        newDecoder();
+        BitMatrix code = new QRCodeWriter().encode(TEXT, BarcodeFormat.QR_CODE, 300, 300);
+        // the same code with different noise, so that every frame gets binarized afresh
+        frames = new PreviewFrame[] {drawFrame(code, 1L), drawFrame(code, 2L)};
+    }
+
+    @Test
+    public void secondFrameUsesTrackedPatterns() {
+        DecodeContext context = new DecodeContext();
+
+        assertNull(decoder.getTrackedCrop(FRAMING_RECT));
+        Result first = decode(frames[0], context);
+        assertNotNull(first);
+        assertEquals(TEXT, first.getText());
+        assertEquals(1L, count("QrCodeDecoder"));
+        assertEquals(0L, count("QrCodeDecoderTracked"));
+
+        Rect tracked = decoder.getTrackedCrop(FRAMING_RECT);
+        assertNotNull(tracked);
+        assertEquals(FRAMING_RECT, tracked);
+        Result second = decode(frames[1], context);
+        assertNotNull(second);
+        assertEquals(TEXT, second.getText());
+        assertEquals(1L, count("QrCodeDecoder"));
+        assertEquals(1L, count("QrCodeDecoderTracked"));
+    }
+
+    @Test
+    public void trackedDecodeIsFasterThanFullSearch() {
+        DecodeContext context = new DecodeContext();
+        // Warm up both paths; the patterns are forgotten every few frames, so both get timed
+        for (int i = 0; i < FRAMES; i++) {
+            assertNotNull(decode(frames[i % frames.length], context));
+        }
+        newDecoder();
+        for (int i = 0; i < FRAMES; i++) {
+            Result result = decode(frames[i % frames.length], context);
+            assertNotNull(result);
+            assertEquals(TEXT, result.getText());
+        }
+        ScanMetrics.Timing full = metrics.snapshot().getReaderTimings().get("QrCodeDecoder");
+        ScanMetrics.Timing tracked = metrics.snapshot().getReaderTimings().get("QrCodeDecoderTracked");
+        System.out.println("QR code held still: full search " + full + "; tracked " + tracked);
+
+        assertEquals(FRAMES, full.getCount() + tracked.getCount());
+        assertTrue(tracked.getCount() > full.getCount());
+        assertTrue(tracked.getMeanMicros() < full.getMeanMicros());
+    }
+
+    /**
+     * Decodes {@code frame} on the tracked crop if there is one, or else the framing rect.
+     */
+    private Result decode(PreviewFrame frame, DecodeContext context) {
+        Rect tracked = decoder.getTrackedCrop(FRAMING_RECT);
+        Rect crop = tracked == null ? FRAMING_RECT : tracked;
+        int scale = tracked == null ? 1 : decoder.getTrackedScale();
+        BinaryBitmap bitmap = context.prepare(frame, crop, scale);
+        return decoder.decode(bitmap, FRAMING_RECT, crop, scale);
+    }
+
+    /**
+     * Replaces the decoder and the metrics with new ones, as a new worker would start with.
+     */
+    private void newDecoder() {
+        metrics = new ScanMetricsCollector();
+        FrameScheduler frameScheduler = new FrameScheduler(new IdleFrameSource(), 0, metrics, false);
+        CancellableResultPointCallback callback = new CancellableResultPointCallback(frameScheduler, null, null);
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, callback);
+        decoder = new QrCodeDecoder(hints, callback, metrics);
+    }
+
+    private long count(String reader) {
+        ScanMetrics.Timing timing = metrics.snapshot().getReaderTimings().get(reader);
+        return timing == null ? 0L : timing.getCount();
+    }
+
+    /**
+     * @return an upright frame with {@code code} dark on light in the middle of the framing rect,
+     * and noise seeded with {@code seed}.
+     */
+    private static PreviewFrame drawFrame(BitMatrix code, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        int left = FRAMING_RECT.centerX() - code.getWidth() / 2;
+        int top = FRAMING_RECT.centerY() - code.getHeight() / 2;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int codeX = x - left;
+                int codeY = y - top;
+                boolean ink = codeX >= 0 && codeX < code.getWidth() && codeY >= 0 && codeY < code.getHeight() &&
+                        code.get(codeX, codeY);
+                data[y * WIDTH + x] = (byte) ((ink ? 40 : 200) + random.nextInt(2 * NOISE + 1) - NOISE);
+            }
+        }
+        PreviewFrame frame = new PreviewFrame();
+        frame.set(ByteBuffer.wrap(data), WIDTH, HEIGHT, WIDTH, 1, 0, 0L);
+        return frame;
+    }
+
+    /**
+     * A source which never delivers a frame; the scheduler is only there for the callback.
+     */
+    private static final class IdleFrameSource implements FrameSource {
+
+        @Override
+        public void setPreviewFrameListener(PreviewFrameListener listener) {
+        }
+
+        @Override
+        public void releasePreviewBuffer(ByteBuffer plane) {
+        }
+
+        @Override
+        public Rect getFramingRectInPreview() {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2010 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decode;
+
+import android.content.Intent;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.camera.FrameSource;
+import com.google.zxing.client.android.camera.PreviewFrameListener;
+import com.google.zxing.client.android.metrics.ScanMetricsCollector;
+import com.google.zxing.client.android.util.Intents;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.LooperMode;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the formats a scan intent asks for, parsed as {@code CaptureActivity} does, reach the
+ * decode workers, so that a 1D only scan reads scanlines and a QR code only scan tracks QR
+ * codes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class ScanModeTest {
+
+    private static final long TIMEOUT_MS = 5000L;
+
+    @Test
+    public void productModeReadsScanlines() {
+        Intent intent = new Intent(Intents.Scan.ACTION).putExtra(Intents.Scan.MODE, Intents.Scan.PRODUCT_MODE);
+        assertEquals(DecodeFormatManager.PRODUCT_FORMATS, DecodeFormatManager.parseDecodeFormats(intent));
+        assertTrue(newDecodeHandler(intent).isScanlineDecoding());
+    }
+
+    @Test
+    public void oneDModeReadsScanlines() {
+        Intent intent = new Intent(Intents.Scan.ACTION).putExtra(Intents.Scan.MODE, Intents.Scan.ONE_D_MODE);
+        assertTrue(newDecodeHandler(intent).isScanlineDecoding());
+    }
+
+    @Test
+    public void oneDFormatsReadScanlines() {
+        Intent intent = new Intent(Intents.Scan.ACTION).putExtra(Intents.Scan.FORMATS, "EAN_13,CODE_128");
+        assertEquals(EnumSet.of(BarcodeFormat.EAN_13, BarcodeFormat.CODE_128),
+                DecodeFormatManager.parseDecodeFormats(intent));
+        assertTrue(newDecodeHandler(intent).isScanlineDecoding());
+    }
+
+    @Test
+    public void anyFormatDecodesWholeFrames() {
+        Intent intent = new Intent(Intents.Scan.ACTION);
+        assertNull(DecodeFormatManager.parseDecodeFormats(intent));
+        DecodeHandler handler = newDecodeHandler(intent);
+        assertFalse(handler.isScanlineDecoding());
+        assertFalse(handler.isQrCodeTracking());
+    }
+
+    @Test
+    public void qrCodeModeTracksQrCodes() {
+        Intent intent = new Intent(Intents.Scan.ACTION).putExtra(Intents.Scan.MODE, Intents.Scan.QR_CODE_MODE);
+        DecodeHandler handler = newDecodeHandler(intent);
+        assertTrue(handler.isQrCodeTracking());
+        assertFalse(handler.isScanlineDecoding());
+    }
+
+    @Test
+    public void multipleModeDoesNotTrackQrCodes() {
+        Intent intent = new Intent(Intents.Scan.ACTION)
+                .putExtra(Intents.Scan.MODE, Intents.Scan.QR_CODE_MODE)
+                .putExtra(Intents.Scan.MULTIPLE, true);
+        assertFalse(newDecodeHandler(intent).isQrCodeTracking());
+    }
+
+    /**
+     * @return a worker's handler, set up by a {@link DecodeThread} the way {@link DecodeEngine} sets
+     * up its own, for the formats and options {@code intent} asks for.
+     */
+    private static DecodeHandler newDecodeHandler(Intent intent) {
+        Collection<BarcodeFormat> formats = DecodeFormatManager.parseDecodeFormats(intent);
+        String characterSet = intent.getStringExtra(Intents.Scan.CHARACTER_SET);
+        DecodeEngine engine = new DecodeEngine(RuntimeEnvironment.application, new IdleFrameSource(),
+                DecodeOptions.parse(intent), formats, null, characterSet, null, new ScanMetricsCollector(),
+                new Handler(Looper.getMainLooper()));
+        DecodeThread thread = new DecodeThread(engine, formats, null, characterSet, null);
+        thread.start();
+        try {
+            return (DecodeHandler) thread.getHandler();
+        } finally {
+            thread.getHandler().sendEmptyMessage(R.id.quit);
+            engine.quitSynchronously(TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * A source which never delivers a frame.
+     */
+    private static final class IdleFrameSource implements FrameSource {
+
+        @Override
+        public void setPreviewFrameListener(PreviewFrameListener listener) {
+        }
+
+        @Override
+        public void releasePreviewBuffer(ByteBuffer plane) {
+        }
+
+        @Override
+        public Rect getFramingRectInPreview() {
+            return null;
+        }
+    }
+
+}